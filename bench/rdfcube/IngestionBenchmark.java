@@ -0,0 +1,77 @@
+package rdfcube;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rdfcube.data.DictionaryEncodedRDFCubeDataSource;
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.StreamingRDFCubeDataSource;
+import rdfcube.types.Quadruple;
+
+/**
+ * Loading a TSV cube with each data source implementation.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestionBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int cubeSize;
+
+	@Param({"4", "64"})
+	public int provenanceIds;
+
+	@Param({"16", "256"})
+	public int relations;
+
+	private SyntheticCubeFiles files;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		files = new SyntheticCubeFiles(cubeSize, provenanceIds, relations, 42);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		files.delete();
+	}
+
+	@Benchmark
+	public RDFCubeDataSource inMemory(QuadCounter counter) throws IOException {
+		RDFCubeDataSource source = InMemoryRDFCubeDataSource.build(files.getCubePath());
+		counter.quads += cubeSize;
+		return source;
+	}
+
+	@Benchmark
+	public RDFCubeDataSource dictionaryEncoded(QuadCounter counter) throws IOException {
+		RDFCubeDataSource source = DictionaryEncodedRDFCubeDataSource.build(files.getCubePath());
+		counter.quads += cubeSize;
+		return source;
+	}
+
+	@Benchmark
+	public long streaming(QuadCounter counter) throws IOException {
+		long hash = 0;
+		for (Quadruple<String, String, String, String> quad : StreamingRDFCubeDataSource.build(files.getCubePath())) {
+			hash += quad.getSecond().hashCode();
+		}
+		counter.quads += cubeSize;
+		return hash;
+	}
+
+}
@@ -0,0 +1,109 @@
+package rdfcube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+import rdfcube.types.Quadruple;
+
+/**
+ * Registration of the quads in the lattice and computation of the metadata links.
+ *
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LatticeBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int cubeSize;
+
+	@Param({"4", "64"})
+	public int provenanceIds;
+
+	@Param({"16", "256"})
+	public int relations;
+
+	private RDFCubeDataSource data;
+
+	private RDFCubeStructure schema;
+
+	private List<Quadruple<String, String, String, String>> quads;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticCubeFiles files = new SyntheticCubeFiles(cubeSize, provenanceIds, relations, 42);
+		data = InMemoryRDFCubeDataSource.build(files.getCubePath());
+		schema = RDFCubeStructure.build(files.getSchemaPath());
+		files.delete();
+		quads = new ArrayList<>(cubeSize);
+		for (Quadruple<String, String, String, String> quad : data) {
+			quads.add(quad);
+		}
+	}
+
+	/**
+	 * A lattice with all the quads registered but without metadata links.
+	 */
+	@State(Scope.Thread)
+	public static class RegisteredLattice {
+
+		FragmentLattice lattice;
+
+		@Setup(Level.Invocation)
+		public void setup(LatticeBenchmark benchmark) {
+			lattice = new FragmentLattice(FragmentLattice.createFragment(), benchmark.schema, benchmark.data);
+			for (Quadruple<String, String, String, String> quad : benchmark.quads) {
+				lattice.registerTuple(quad);
+			}
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() {
+			lattice = null;
+		}
+
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public FragmentLattice registerTuple(QuadCounter counter) {
+		FragmentLattice lattice = new FragmentLattice(FragmentLattice.createFragment(), schema, data);
+		for (Quadruple<String, String, String, String> quad : quads) {
+			lattice.registerTuple(quad);
+		}
+		counter.quads += quads.size();
+		return lattice;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	public FragmentLattice parallelBuild(QuadCounter counter) {
+		FragmentLattice lattice = new ParallelFragmentLatticeBuilder().build(data, schema);
+		counter.quads += quads.size();
+		return lattice;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public FragmentLattice linkData2MetadataFragments(RegisteredLattice registered) {
+		registered.lattice.linkData2MetadataFragments();
+		return registered.lattice;
+	}
+
+}
@@ -0,0 +1,25 @@
+package rdfcube;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the quads processed by a benchmark, so that JMH reports quads/s
+ * next to the number of operations.
+ *
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class QuadCounter {
+
+	public long quads;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		quads = 0;
+	}
+
+}
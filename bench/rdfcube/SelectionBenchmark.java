@@ -0,0 +1,79 @@
+package rdfcube;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+
+/**
+ * Latency of the fragment selectors on the same lattice and budget.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SelectionBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int cubeSize;
+
+	@Param({"4", "64"})
+	public int provenanceIds;
+
+	@Param({"16", "256"})
+	public int relations;
+
+	/**
+	 * Budget as a fraction of the size of the cube
+	 */
+	@Param({"0.01", "0.1"})
+	public double budgetRatio;
+
+	@Param({"greedy", "lazy", "parallel"})
+	public String selector;
+
+	private FragmentLattice lattice;
+
+	private FragmentsSelector fragmentsSelector;
+
+	private long budget;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticCubeFiles files = new SyntheticCubeFiles(cubeSize, provenanceIds, relations, 42);
+		RDFCubeDataSource data = InMemoryRDFCubeDataSource.build(files.getCubePath());
+		RDFCubeStructure schema = RDFCubeStructure.build(files.getSchemaPath());
+		files.delete();
+		lattice = new ExampleFragmentLatticeBuilder().build(data, schema);
+		budget = (long)(lattice.getRoot().size() * budgetRatio);
+		switch (selector) {
+		case "lazy" :
+			fragmentsSelector = new LazyGreedyFragmentsSelector();
+			break;
+		case "parallel" :
+			fragmentsSelector = new ParallelGreedyFragmentsSelector();
+			break;
+		default :
+			fragmentsSelector = new GreedyFragmentsSelector();
+		}
+	}
+
+	@Benchmark
+	public Set<RDFCubeFragment> select() {
+		return fragmentsSelector.select(lattice, budget);
+	}
+
+}
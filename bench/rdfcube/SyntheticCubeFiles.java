@@ -0,0 +1,66 @@
+package rdfcube;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Writes a random cube and its schema to temporary TSV files for the benchmarks.
+ * Relation i goes from type Ti to type Ti+1 and every fourth relation is a cube
+ * (metadata) relation, so the lattice has metadata links to compute.
+ *
+ */
+class SyntheticCubeFiles {
+
+	private static final int nTypes = 8;
+
+	private File directory;
+
+	private File cubeFile;
+
+	private File schemaFile;
+
+	SyntheticCubeFiles(int nQuads, int nProvenanceIds, int nRelations, long seed) throws IOException {
+		directory = File.createTempFile("rdfcube-bench", "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Could not create " + directory);
+
+		schemaFile = new File(directory, "bench.schema.tsv");
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(schemaFile)))) {
+			for (int i = 0; i < nRelations; ++i) {
+				String relation = "b:relation" + i;
+				writer.println(relation + "\trdf:type\t" + (i % 4 == 3 ? "CubeRelation" : "FactualRelation"));
+				writer.println(relation + "\trdfs:domain\tb:Type" + (i % nTypes));
+				writer.println(relation + "\trdfs:range\tb:Type" + ((i + 1) % nTypes));
+			}
+		}
+
+		Random random = new Random(seed);
+		int nSubjects = Math.max(1, nQuads / 10);
+		cubeFile = new File(directory, "bench.cube.tsv");
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(cubeFile), 1 << 16))) {
+			for (int i = 0; i < nQuads; ++i) {
+				writer.println(":s" + random.nextInt(nSubjects) + "\tb:relation" + random.nextInt(nRelations)
+						+ "\t:o" + random.nextInt(nSubjects) + "\t:prov" + random.nextInt(nProvenanceIds));
+			}
+		}
+	}
+
+	String getCubePath() {
+		return cubeFile.getPath();
+	}
+
+	String getSchemaPath() {
+		return schemaFile.getPath();
+	}
+
+	void delete() {
+		cubeFile.delete();
+		schemaFile.delete();
+		directory.delete();
+	}
+
+}
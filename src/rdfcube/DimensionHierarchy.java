@@ -55,5 +55,40 @@ public class DimensionHierarchy {
 	public void addRelation(String relation) {
 		relations.add(relation);		
 	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the level following the given one in the roll-up chain or null
+	 * if the level is the coarsest one.
+	 * @param level
+	 * @return
+	 */
+	public String getRollup(String level) {
+		return rollupGraph.get(level);
+	}
+	
+	/**
+	 * Returns the levels of the dimension from the finest to the coarsest one. If the 
+	 * levels do not form a single chain, they are returned in definition order.
+	 * @return
+	 */
+	public List<String> getLevels() {
+		List<String> starts = new ArrayList<String>(relations);
+		starts.removeAll(rollupGraph.values());
+		if (starts.size() != 1)
+			return new ArrayList<String>(relations);
+		
+		List<String> levels = new ArrayList<String>();
+		String level = starts.get(0);
+		while (level != null && !levels.contains(level)) {
+			levels.add(level);
+			level = rollupGraph.get(level);
+		}
+		
+		return levels;
+	}
 
 }
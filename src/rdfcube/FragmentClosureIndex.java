@@ -0,0 +1,175 @@
+package rdfcube;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.collections4.MultiValuedMap;
+
+/**
+ * Transitive closure of the parent relationship in a fragments lattice. Every fragment
+ * gets a dense identifier (the root is 0, the other fragments follow in the order they
+ * were registered) and the ancestors and descendants of each fragment are stored as bitsets
+ * over those identifiers. The index is a snapshot: it must be rebuilt when the lattice changes.
+ *
+ */
+public class FragmentClosureIndex {
+
+	private Map<RDFCubeFragment, Integer> ids;
+
+	private List<RDFCubeFragment> fragments;
+
+	private BitSet[] ancestors;
+
+	private BitSet[] descendants;
+
+	/**
+	 * Builds the closure of the given graph.
+	 * @param root
+	 * @param fragmentsInOrder All the fragments of the lattice except the root.
+	 * @param parentsGraph Map from children to parents
+	 */
+	FragmentClosureIndex(RDFCubeFragment root, Iterable<RDFCubeFragment> fragmentsInOrder,
+			MultiValuedMap<RDFCubeFragment, RDFCubeFragment> parentsGraph) {
+		ids = new HashMap<>();
+		fragments = new ArrayList<>();
+		register(root);
+		for (RDFCubeFragment fragment : fragmentsInOrder) {
+			register(fragment);
+		}
+
+		ancestors = new BitSet[fragments.size()];
+		descendants = new BitSet[fragments.size()];
+		for (int id = 0; id < fragments.size(); ++id) {
+			computeAncestors(id, parentsGraph);
+			descendants[id] = new BitSet();
+		}
+
+		for (int id = 0; id < fragments.size(); ++id) {
+			for (int ancestor = ancestors[id].nextSetBit(0); ancestor >= 0;
+					ancestor = ancestors[id].nextSetBit(ancestor + 1)) {
+				descendants[ancestor].set(id);
+			}
+		}
+	}
+
+	private void register(RDFCubeFragment fragment) {
+		if (!ids.containsKey(fragment)) {
+			ids.put(fragment, fragments.size());
+			fragments.add(fragment);
+		}
+	}
+
+	private BitSet computeAncestors(int id, MultiValuedMap<RDFCubeFragment, RDFCubeFragment> parentsGraph) {
+		if (ancestors[id] == null) {
+			BitSet result = new BitSet();
+			for (RDFCubeFragment parent : parentsGraph.get(fragments.get(id))) {
+				int parentId = ids.get(parent);
+				result.set(parentId);
+				result.or(computeAncestors(parentId, parentsGraph));
+			}
+			ancestors[id] = result;
+		}
+
+		return ancestors[id];
+	}
+
+	/**
+	 * Number of fragments in the index.
+	 * @return
+	 */
+	public int size() {
+		return fragments.size();
+	}
+
+	/**
+	 * Returns the dense identifier of the fragment or -1 if the fragment is
+	 * not in the index.
+	 * @param fragment
+	 * @return
+	 */
+	public int getId(RDFCubeFragment fragment) {
+		Integer id = ids.get(fragment);
+		return id == null ? -1 : id;
+	}
+
+	public RDFCubeFragment getFragment(int id) {
+		return fragments.get(id);
+	}
+
+	/**
+	 * Returns true if the first fragment is a (proper) ancestor of the second one.
+	 * @param ancestor
+	 * @param descendant
+	 * @return
+	 */
+	public boolean isAncestor(RDFCubeFragment ancestor, RDFCubeFragment descendant) {
+		int ancestorId = getId(ancestor);
+		int descendantId = getId(descendant);
+		if (ancestorId < 0 || descendantId < 0)
+			return false;
+
+		return ancestors[descendantId].get(ancestorId);
+	}
+
+	/**
+	 * Returns the ids of the ancestors of the given fragment. The bitset must not be modified.
+	 * @param id
+	 * @return
+	 */
+	public BitSet getAncestorIds(int id) {
+		return ancestors[id];
+	}
+
+	/**
+	 * Returns the ids of the descendants of the given fragment. The bitset must not be modified.
+	 * @param id
+	 * @return
+	 */
+	public BitSet getDescendantIds(int id) {
+		return descendants[id];
+	}
+
+	public Iterable<RDFCubeFragment> getAncestors(RDFCubeFragment fragment) {
+		return asFragments(ancestors[ids.get(fragment)]);
+	}
+
+	public Iterable<RDFCubeFragment> getDescendants(RDFCubeFragment fragment) {
+		return asFragments(descendants[ids.get(fragment)]);
+	}
+
+	private Iterable<RDFCubeFragment> asFragments(final BitSet bitset) {
+		return new Iterable<RDFCubeFragment>() {
+
+			@Override
+			public Iterator<RDFCubeFragment> iterator() {
+				return new Iterator<RDFCubeFragment>() {
+
+					int next = bitset.nextSetBit(0);
+
+					@Override
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					@Override
+					public RDFCubeFragment next() {
+						if (next < 0)
+							throw new NoSuchElementException();
+
+						RDFCubeFragment result = fragments.get(next);
+						next = bitset.nextSetBit(next + 1);
+						return result;
+					}
+
+				};
+			}
+
+		};
+	}
+
+}
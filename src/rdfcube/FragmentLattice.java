@@ -1,9 +1,16 @@
 package rdfcube;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,10 +21,20 @@ import org.apache.commons.lang3.tuple.Pair;
 import rdfcube.data.InMemoryRDFCubeDataSource;
 import rdfcube.data.RDFCubeDataSource;
 import rdfcube.data.RDFCubeStructure;
+import rdfcube.metrics.PipelineMetrics;
+import rdfcube.sketch.HyperLogLog;
 import rdfcube.types.Quadruple;
 
+/**
+ * Lattice of the fragments of a cube. Under the root, a quad belongs to the fragment of its
+ * provenance identifier, to the fragment of its relation (all provenance identifiers), to the
+ * fragment of the domain of its relation, to the fragment of every dimension its relation is
+ * a level of, and to the fragment of its relation and provenance identifier, which is a child
+ * of both the provenance and the relation fragments. The relation fragments are children of
+ * the domain and dimension fragments; fragments without parents among those hang from the root.
+ */
 public class FragmentLattice implements Iterable<RDFCubeFragment>{
-	
+
 	/**
 	 * Root fragment, i.e., ancestor of all fragments in the lattice.
 	 * It represents the entire cube
@@ -50,21 +67,33 @@ public class FragmentLattice implements Iterable<RDFCubeFragment>{
 	private MultiValuedMap<RDFCubeFragment, RDFCubeFragment> metadataMap;
 	
 	/**
-	 * Map from signature hash codes to partitions.
+	 * Map from the signatures of the fragments (all of them) to the fragments, in registration order.
 	 */
-	private Map<Quadruple<String, String, String, String>, RDFCubeFragment> partitionsFullSignatureMap;
-	
+	private Map<Set<Quadruple<String, String, String, String>>, RDFCubeFragment> partitionsFullSignatureMap;
+
+	/**
+	 * Map from level relations to the signatures of the fragments of the dimensions they belong to.
+	 * Dimensions with a single level are left out, as their fragment would be the relation fragment.
+	 */
+	private Map<String, List<Set<Quadruple<String, String, String, String>>>> dimensionSignatures;
+
 	/**
 	 * Map where the keys are data types and the values are all the fragments
-	 * whose signature relation has that type as domain.
+	 * with a signature whose relation has that type as domain.
 	 */
 	private MultiValuedMap<String, RDFCubeFragment> partitionsDomainOfSignatureMap;
 
 	/**
 	 * Map where the keys are data types and the values are all the fragments
-	 * whose signature relation has that type as range.
+	 * with a signature whose relation has that type as range.
 	 */	
 	private MultiValuedMap<String, RDFCubeFragment> partitionsRangeOfSignatureMap;
+	
+	/**
+	 * Ancestors and descendants of every fragment. It is built on demand and 
+	 * discarded whenever the graph changes.
+	 */
+	private FragmentClosureIndex closureIndex;
 		
 	
 	FragmentLattice(RDFCubeFragment root, RDFCubeStructure schema, RDFCubeDataSource data) {
@@ -77,43 +106,152 @@ public class FragmentLattice implements Iterable<RDFCubeFragment>{
 		partitionsFullSignatureMap = new LinkedHashMap<>();
 		partitionsDomainOfSignatureMap = new HashSetValuedHashMap<>();
 		partitionsRangeOfSignatureMap = new HashSetValuedHashMap<>();
+		dimensionSignatures = new HashMap<>();
+		if (schema != null) {
+			buildDimensionSignatures();
+		}
 	}
-	
-	
+
+	private void buildDimensionSignatures() {
+		List<String> names = new ArrayList<>(structure.getDimensions().keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			List<String> levels = structure.getDimensions().get(name).getLevels();
+			if (levels.size() < 2)
+				continue;
+
+			Set<Quadruple<String, String, String, String>> signatures = new LinkedHashSet<>();
+			for (String level : levels) {
+				signatures.add(getRelationSignature(level, null));
+			}
+			signatures = Collections.unmodifiableSet(signatures);
+			for (String level : levels) {
+				List<Set<Quadruple<String, String, String, String>>> levelDimensions = dimensionSignatures.get(level);
+				if (levelDimensions == null) {
+					levelDimensions = new ArrayList<>(1);
+					dimensionSignatures.put(level, levelDimensions);
+				}
+				levelDimensions.add(signatures);
+			}
+		}
+	}
+
+	/**
+	 * Returns the signature of the fragment of a relation.
+	 * @param relation
+	 * @param provenanceIdentifier null for the fragment of the relation in all provenance identifiers
+	 * @return
+	 */
+	private Quadruple<String, String, String, String> getRelationSignature(String relation, String provenanceIdentifier) {
+		Pair<String, String> relationDomainAndRange = structure.getSignature(relation);
+		return new Quadruple<>(relationDomainAndRange.getLeft(), relation, relationDomainAndRange.getRight(), provenanceIdentifier);
+	}
+
+	/**
+	 * Returns the fragment with the given signature as only signature, or null if there is none.
+	 */
+	private RDFCubeFragment getFragment(Quadruple<String, String, String, String> signature) {
+		return partitionsFullSignatureMap.get(Collections.singleton(signature));
+	}
+
+	/**
+	 * Returns the domains through which a fragment joins other fragments: the domains of its
+	 * signatures that are not the range of another of its signatures. For a dimension fragment
+	 * it is the domain of the entry level; the metadata relations joining the other levels are
+	 * already part of the fragment.
+	 */
+	private static Set<String> getDomains(RDFCubeFragment fragment) {
+		Set<String> ranges = new HashSet<>(2);
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getThird() != null) {
+				ranges.add(signature.getThird());
+			}
+		}
+		Set<String> domains = new LinkedHashSet<>(2);
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getFirst() != null && !ranges.contains(signature.getFirst())) {
+				domains.add(signature.getFirst());
+			}
+		}
+
+		return domains;
+	}
+
+	/**
+	 * Metadata fragments are linked at the relation level, i.e., to the fragments holding a
+	 * metadata relation in all provenance identifiers. Their children split the same triples
+	 * by provenance identifier, so linking them too would count the same triples twice.
+	 */
+	private static boolean isLinkableMetadataFragment(RDFCubeFragment fragment) {
+		return fragment.isMetadata() && fragment.getFirstSignature().getSecond() != null
+				&& fragment.getFirstSignature().getFourth() == null;
+	}
+
+
+	/**
+	 * Links a fragment to a metadata fragment, unless the metadata fragment is part of it
+	 * (e.g., a level of the dimension of a dimension fragment), which would count its
+	 * triples twice.
+	 */
+	private void linkMetadataFragment(RDFCubeFragment fragment, RDFCubeFragment metadataFragment) {
+		if (!contains(fragment, metadataFragment)) {
+			metadataMap.put(fragment, metadataFragment);
+		}
+	}
+
+	/**
+	 * Returns true if the quads of the single-signature fragment are part of the given fragment,
+	 * i.e., some signature of the fragment matches its signature (null components match anything).
+	 */
+	private static boolean contains(RDFCubeFragment fragment, RDFCubeFragment singleSignatureFragment) {
+		if (fragment.isRoot())
+			return true;
+
+		Quadruple<String, String, String, String> contained = singleSignatureFragment.getFirstSignature();
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if ((signature.getFirst() == null || signature.getFirst().equals(contained.getFirst()))
+					&& (signature.getSecond() == null || signature.getSecond().equals(contained.getSecond()))
+					&& (signature.getThird() == null || signature.getThird().equals(contained.getThird()))
+					&& (signature.getFourth() == null || signature.getFourth().equals(contained.getFourth())))
+				return true;
+		}
+
+		return false;
+	}
+
 	void linkData2MetadataFragments() {
+		long start = System.nanoTime();
+		FragmentClosureIndex closure = getClosureIndex();
 		for (RDFCubeFragment fragment : parentsGraph.keySet()) {
-			Set<RDFCubeFragment> ancestors = getAncestors(fragment);
+			Iterable<RDFCubeFragment> ancestors = closure.getAncestors(fragment);
 			if (!fragment.isMetadata()) {
 				// Get all the fragments joining on the object
-				Quadruple<String, String, String, String> signature = fragment.getFirstSignature();
-				String domain = signature.getFirst();
-				Set<RDFCubeFragment> candidateMetadataFragments = (Set<RDFCubeFragment>) partitionsRangeOfSignatureMap.get(domain);
-				if (candidateMetadataFragments != null) {
-					for (RDFCubeFragment candidateFragment : candidateMetadataFragments) {
-						if (candidateFragment.isMetadata()) {
-							metadataMap.put(fragment, candidateFragment);
+				for (String domain : getDomains(fragment)) {
+					for (RDFCubeFragment candidateFragment : partitionsRangeOfSignatureMap.get(domain)) {
+						if (isLinkableMetadataFragment(candidateFragment)) {
+							linkMetadataFragment(fragment, candidateFragment);
 							for (RDFCubeFragment ancestor : ancestors) {
-								metadataMap.put(ancestor, candidateFragment);
+								linkMetadataFragment(ancestor, candidateFragment);
 							}
 						}
 					}
 				}
 			}
 		}
-		
+		PipelineMetrics.get().metadataLinkingDone(System.nanoTime() - start);
 	}
 
-	private Set<RDFCubeFragment> getAncestors(RDFCubeFragment fragment) {
-		Set<RDFCubeFragment> parents = (Set<RDFCubeFragment>) parentsGraph.get(fragment);
-		Set<RDFCubeFragment> result = new LinkedHashSet<>();
-		if (parents != null) {
-			for (RDFCubeFragment parent : parents) {
-				result.add(parent);
-				result.addAll(getAncestors(parent));
-			}
+	/**
+	 * Returns the transitive closure of the lattice, which provides constant-time 
+	 * ancestor tests and cheap iteration over ancestors and descendants.
+	 * @return
+	 */
+	public FragmentClosureIndex getClosureIndex() {
+		if (closureIndex == null) {
+			closureIndex = new FragmentClosureIndex(root, partitionsFullSignatureMap.values(), parentsGraph);
 		}
 		
-		return result;
+		return closureIndex;
 	}
 
 	/**
@@ -124,20 +262,58 @@ public class FragmentLattice implements Iterable<RDFCubeFragment>{
 		return new RDFCubeDataFragment();
 	}
 	
-	private static RDFCubeFragment createFragment(String provenanceIdentifier) {
-		return new RDFCubeDataFragment(provenanceIdentifier);
+	/**
+	 * Creates a fragment with the given signatures. The fragments of a single metadata relation
+	 * are metadata fragments, and so are the domain fragments whose relations are all metadata
+	 * relations (e.g., the intermediate levels of a dimension). Provenance and dimension fragments,
+	 * as well as domain fragments that contain some data relation, are data fragments.
+	 */
+	private RDFCubeFragment createFragment(Set<Quadruple<String, String, String, String>> signatures) {
+		PipelineMetrics.get().fragmentCreated();
+		Iterator<Quadruple<String, String, String, String>> iterator = signatures.iterator();
+		Quadruple<String, String, String, String> firstSignature = iterator.next();
+		boolean metadataRelation = firstSignature.getSecond() != null
+				&& structure.isMetadataRelation(firstSignature.getSecond());
+		boolean metadataDomain = firstSignature.getSecond() == null && firstSignature.getFourth() == null
+				&& firstSignature.getFirst() != null && structure.isMetadataDomain(firstSignature.getFirst());
+		RDFCubeFragment fragment;
+		if (signatures.size() == 1 && (metadataRelation || metadataDomain)) {
+			fragment = new RDFCubeMetadataFragment(firstSignature);
+		} else {
+			fragment = new RDFCubeDataFragment(firstSignature);
+		}
+		while (iterator.hasNext()) {
+			fragment.addSignature(iterator.next());
+		}
+
+		return fragment;
 	}
-	
 
-	private RDFCubeFragment createFragment(Quadruple<String, String, String, String> relationSignature) {
-		String relation = relationSignature.getSecond();
-		if (structure.isMetadataRelation(relation)) {
-			return new RDFCubeMetadataFragment(relationSignature);
-		} else {
-			return new RDFCubeDataFragment(relationSignature);
+	/**
+	 * Returns the fragment with the given signatures. If there is none, it is created and linked
+	 * to the given parents, or to the root if there are no parents.
+	 */
+	private RDFCubeFragment getOrCreateFragment(Set<Quadruple<String, String, String, String>> signatures,
+			List<RDFCubeFragment> parents, Collection<RDFCubeFragment> newFragments) {
+		RDFCubeFragment fragment = partitionsFullSignatureMap.get(signatures);
+		if (fragment == null) {
+			fragment = createFragment(signatures);
+			addFragment(fragment);
+			if (parents.isEmpty()) {
+				addEdge(fragment);
+			} else {
+				for (RDFCubeFragment parent : parents) {
+					addEdge(fragment, parent);
+				}
+			}
+			if (newFragments != null) {
+				newFragments.add(fragment);
+			}
 		}
+
+		return fragment;
 	}
-	
+
 
 	
 	@Override
@@ -154,41 +330,340 @@ public class FragmentLattice implements Iterable<RDFCubeFragment>{
 	}
 	
 	void registerTuple(Quadruple<String, String, String, String> quad) {
+		registerTuple(quad, null);
+	}
+	
+	/**
+	 * Registers a quad in the lattice.
+	 * @param quad
+	 * @param newFragments If not null, the fragments created for the quad are added to this collection.
+	 */
+	private void registerTuple(Quadruple<String, String, String, String> quad, Collection<RDFCubeFragment> newFragments) {
+		PipelineMetrics.get().tupleRegistered();
+		long subjectHash = HyperLogLog.hash(quad.getFirst());
+		long objectHash = HyperLogLog.hash(quad.getThird());
 		root.increaseSize();
+		root.addToSketches(subjectHash, objectHash);
 		String provenanceIdentifier = quad.getFourth();
-		
-		// Register the triple in the fragment corresponding to the provenance identifier
-		Quadruple<String, String, String, String> provSignature = new Quadruple<>(null, null, null, provenanceIdentifier);
-		RDFCubeFragment provPartition = partitionsFullSignatureMap.get(provSignature);
-		if (provPartition == null) {
-			provPartition = createFragment(provenanceIdentifier);
-			partitionsFullSignatureMap.put(provSignature, provPartition);
-			addEdge(provPartition);
+		String relation = quad.getSecond();
+		List<RDFCubeFragment> noParents = Collections.emptyList();
+
+		// Parents are created before their children, so the registration order is topological.
+		// Fragment corresponding to the provenance identifier
+		RDFCubeFragment provPartition = getOrCreateFragment(Collections.singleton(
+				new Quadruple<String, String, String, String>(null, null, null, provenanceIdentifier)), noParents, newFragments);
+
+		// Fragments grouping the relation with other relations: by domain and by dimension
+		Quadruple<String, String, String, String> relationSignature = getRelationSignature(relation, null);
+		List<RDFCubeFragment> relationParents = new ArrayList<>(2);
+		if (relationSignature.getFirst() != null) {
+			relationParents.add(getOrCreateFragment(Collections.singleton(new Quadruple<String, String, String, String>(
+					relationSignature.getFirst(), null, null, null)), noParents, newFragments));
+		}
+		List<Set<Quadruple<String, String, String, String>>> relationDimensions = dimensionSignatures.get(relation);
+		if (relationDimensions != null) {
+			for (Set<Quadruple<String, String, String, String>> dimensionSignature : relationDimensions) {
+				relationParents.add(getOrCreateFragment(dimensionSignature, noParents, newFragments));
+			}
 		}
+
+		// Fragment corresponding to the relation in all provenance identifiers
+		RDFCubeFragment relationPartition = getOrCreateFragment(Collections.singleton(relationSignature),
+				relationParents, newFragments);
+
+		// Fragment corresponding to the relation and the provenance identifier
+		RDFCubeFragment relationPlusProvPartition = getOrCreateFragment(Collections.singleton(
+				getRelationSignature(relation, provenanceIdentifier)),
+				Arrays.asList(provPartition, relationPartition), newFragments);
+
 		provPartition.increaseSize();
+		provPartition.addToSketches(subjectHash, objectHash);
+		for (RDFCubeFragment parent : relationParents) {
+			parent.increaseSize();
+			parent.addToSketches(subjectHash, objectHash);
+		}
+		relationPartition.increaseSize();
+		relationPartition.addToSketches(subjectHash, objectHash);
+		relationPlusProvPartition.increaseSize();
+		relationPlusProvPartition.addToSketches(subjectHash, objectHash);
+	}
+
+	/**
+	 * Removes a quad from the lattice. Fragments that become empty are dropped.
+	 * @param quad
+	 * @param droppedFragments The fragments dropped because of the removal are added to this collection.
+	 * @return false if the quad does not belong to any fragment of the lattice.
+	 */
+	private boolean unregisterTuple(Quadruple<String, String, String, String> quad, Collection<RDFCubeFragment> droppedFragments) {
+		if (getFragment(getRelationSignature(quad.getSecond(), quad.getFourth())) == null)
+			return false;
+
+		List<RDFCubeFragment> fragments = getContainingFragments(quad);
+		root.decreaseSize();
+		// Children go first, so that they are unlinked before their parents are dropped
+		for (int i = fragments.size() - 1; i > 0; --i) {
+			RDFCubeFragment fragment = fragments.get(i);
+			fragment.decreaseSize();
+			if (fragment.size() == 0) {
+				removeFragment(fragment);
+				droppedFragments.add(fragment);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes a fragment and all its edges from the lattice.
+	 * @param fragment
+	 */
+	private void removeFragment(RDFCubeFragment fragment) {
+		partitionsFullSignatureMap.remove(fragment.getSignatures());
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getFirst() != null) {
+				partitionsDomainOfSignatureMap.removeMapping(signature.getFirst(), fragment);
+			}
+			if (signature.getThird() != null) {
+				partitionsRangeOfSignatureMap.removeMapping(signature.getThird(), fragment);
+			}
+		}
+		closureIndex = null;
+		for (RDFCubeFragment parent : parentsGraph.remove(fragment)) {
+			childrenGraph.removeMapping(parent, fragment);
+		}
+		for (RDFCubeFragment child : childrenGraph.remove(fragment)) {
+			parentsGraph.removeMapping(child, fragment);
+		}
+		metadataMap.remove(fragment);
+	}
+	
+	/**
+	 * Updates the lattice with a batch of changes in the cube: deletions are applied first,
+	 * then insertions. Fragment sizes are updated, fragments are created or dropped as needed and
+	 * the metadata links are recomputed only for the fragments whose domain or range is the domain or
+	 * range of a created or dropped fragment (and their ancestors). The cost is therefore proportional 
+	 * to the size of the delta and not to the size of the cube. 
+	 * The lattice cannot verify that deleted quads are actually in the cube, so it is the caller's 
+	 * responsibility to send only quads that were previously registered.
+	 * @param insertions
+	 * @param deletions
+	 * @return the number of deletions ignored because their quad does not belong to any fragment of the lattice.
+	 */
+	public int applyDelta(Iterable<Quadruple<String, String, String, String>> insertions, 
+			Iterable<Quadruple<String, String, String, String>> deletions) {
+		Set<RDFCubeFragment> droppedFragments = new LinkedHashSet<>();
+		Set<RDFCubeFragment> newFragments = new LinkedHashSet<>();
+		// Fragments whose metadata links may have changed
+		Set<RDFCubeFragment> pendingFragments = new LinkedHashSet<>();
+		int ignoredDeletions = 0;
 		
-		// Register the triple in the fragment corresponding to the provenance identifier
-		String relation = quad.getSecond();
-		Pair<String, String> relationDomainAndRange = structure.getSignature(relation);		
-		Quadruple<String, String, String, String> relationSignature = new Quadruple<>(relationDomainAndRange.getLeft(), 
-				relation, relationDomainAndRange.getRight(), provenanceIdentifier); 
-		RDFCubeFragment relationPlusProvPartition = partitionsFullSignatureMap.get(relationSignature);
-		if (relationPlusProvPartition == null) {
-			relationPlusProvPartition = createFragment(relationSignature);
-			partitionsFullSignatureMap.put(relationSignature, provPartition);
-			addEdge(relationPlusProvPartition, provPartition);
-			if (relationSignature.getFirst() != null) {
-				partitionsDomainOfSignatureMap.put(relationSignature.getFirst(), relationPlusProvPartition);
-			}
-			if (relationSignature.getThird() != null) {
-				partitionsRangeOfSignatureMap.put(relationSignature.getThird(), relationPlusProvPartition);
+		for (Quadruple<String, String, String, String> quad : deletions) {
+			List<RDFCubeFragment> dropped = new ArrayList<>(2);
+			// Collect the fragments before they disappear from the graph. They include all
+			// their ancestors, since an ancestor contains the quads of its descendants.
+			List<RDFCubeFragment> containingFragments = getContainingFragments(quad);
+			if (unregisterTuple(quad, dropped)) {
+				if (!dropped.isEmpty()) {
+					droppedFragments.addAll(dropped);
+					pendingFragments.addAll(containingFragments);
+				}
+			} else {
+				++ignoredDeletions;
+			}
+		}
+		
+		for (Quadruple<String, String, String, String> quad : insertions) {
+			registerTuple(quad, newFragments);
+		}
+		
+		// A fragment that was dropped and created again within the same batch is just new
+		droppedFragments.removeAll(newFragments);
+		pendingFragments.removeAll(droppedFragments);
+		
+		Set<String> affectedTypes = new LinkedHashSet<>();
+		for (RDFCubeFragment fragment : droppedFragments) {
+			addSignatureTypes(fragment, affectedTypes);
+		}		
+		// The closure index is outdated if fragments were created or dropped, and rebuilding it
+		// would cost more than the delta, so the ancestors are found on the parents graph
+		Set<RDFCubeFragment> visited = new LinkedHashSet<>();
+		for (RDFCubeFragment fragment : newFragments) {
+			addSignatureTypes(fragment, affectedTypes);
+			addWithAncestors(fragment, pendingFragments, visited);
+		}
+		for (String type : affectedTypes) {
+			for (RDFCubeFragment fragment : partitionsDomainOfSignatureMap.get(type)) {
+				addWithAncestors(fragment, pendingFragments, visited);
+			}
+		}
+		
+		while (!pendingFragments.isEmpty()) {
+			relinkData2MetadataFragments(pendingFragments.iterator().next(), pendingFragments);
+		}
+		
+		return ignoredDeletions;
+	}
+	
+	/**
+	 * Adds the fragment and its ancestors to the given set.
+	 * @param fragment
+	 * @param fragments
+	 * @param visited Fragments whose ancestors have already been added
+	 */
+	private void addWithAncestors(RDFCubeFragment fragment, Set<RDFCubeFragment> fragments, Set<RDFCubeFragment> visited) {
+		if (!visited.add(fragment))
+			return;
+		
+		fragments.add(fragment);
+		for (RDFCubeFragment parent : parentsGraph.get(fragment)) {
+			addWithAncestors(parent, fragments, visited);
+		}
+	}
+	
+	private static void addSignatureTypes(RDFCubeFragment fragment, Set<String> types) {
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getFirst() != null) {
+				types.add(signature.getFirst());
+			}
+			if (signature.getThird() != null) {
+				types.add(signature.getThird());
+			}
+		}
+	}
+	
+	/**
+	 * Recomputes the metadata links of a fragment (and of its pending descendants first). 
+	 * The links of a fragment are the metadata fragments that join its domain plus the links of its children, 
+	 * which is equivalent to the definition used by {@link #linkData2MetadataFragments()}.
+	 * @param fragment
+	 * @param pendingFragments Fragments whose links are outdated. The fragment is removed from this set.
+	 */
+	private void relinkData2MetadataFragments(RDFCubeFragment fragment, Set<RDFCubeFragment> pendingFragments) {
+		if (!pendingFragments.remove(fragment))
+			return;
+		
+		Collection<RDFCubeFragment> children = childrenGraph.get(fragment);
+		for (RDFCubeFragment child : children) {
+			relinkData2MetadataFragments(child, pendingFragments);
+		}
+		
+		metadataMap.remove(fragment);
+		if (!fragment.isMetadata()) {
+			for (String domain : getDomains(fragment)) {
+				for (RDFCubeFragment candidateFragment : partitionsRangeOfSignatureMap.get(domain)) {
+					if (isLinkableMetadataFragment(candidateFragment)) {
+						linkMetadataFragment(fragment, candidateFragment);
+					}
+				}
+			}
+		}
+		
+		for (RDFCubeFragment child : children) {
+			for (RDFCubeFragment metadataFragment : metadataMap.get(child)) {
+				linkMetadataFragment(fragment, metadataFragment);
 			}
-			
 		}
-		relationPlusProvPartition.increaseSize();
+	}
+
+	/**
+	 * Adds the fragments, sizes and edges of a partial lattice built over a disjoint
+	 * portion of the same cube. Fragments that do not exist in this lattice are created
+	 * in the order they were registered in the partial lattice, so merging partial lattices
+	 * in the order of their portions yields the same lattice as a sequential registration.
+	 * Metadata links are not merged; they must be computed on the final lattice.
+	 * @param partial
+	 */
+	void merge(FragmentLattice partial) {
+		root.increaseSize(partial.root.size());
+		root.mergeSketches(partial.root);
+		for (Map.Entry<Set<Quadruple<String, String, String, String>>, RDFCubeFragment> entry :
+			partial.partitionsFullSignatureMap.entrySet()) {
+			RDFCubeFragment partialFragment = entry.getValue();
+			RDFCubeFragment fragment = partitionsFullSignatureMap.get(entry.getKey());
+			if (fragment == null) {
+				fragment = createFragment(entry.getKey());
+				addFragment(fragment);
+				for (RDFCubeFragment partialParent : partial.parentsGraph.get(partialFragment)) {
+					RDFCubeFragment parent = partialParent.isRoot() ?
+							root : partitionsFullSignatureMap.get(partialParent.getSignatures());
+					addEdge(fragment, parent);
+				}
+			}
+			fragment.increaseSize(partialFragment.size());
+			fragment.mergeSketches(partialFragment);
+		}
+	}
+	
+	/**
+	 * Indexes a fragment by its signatures and by the domains and ranges of its signatures.
+	 * The fragment must still be connected to its parents.
+	 * @param fragment
+	 */
+	void addFragment(RDFCubeFragment fragment) {
+		partitionsFullSignatureMap.put(fragment.getSignatures(), fragment);
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getFirst() != null) {
+				partitionsDomainOfSignatureMap.put(signature.getFirst(), fragment);
+			}
+			if (signature.getThird() != null) {
+				partitionsRangeOfSignatureMap.put(signature.getThird(), fragment);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the parents of the fragment in the lattice.
+	 * @param fragment
+	 * @return
+	 */
+	Collection<RDFCubeFragment> getParents(RDFCubeFragment fragment) {
+		return Collections.unmodifiableCollection(parentsGraph.get(fragment));
+	}
+	
+	/**
+	 * Adds an edge between a fragment and one of its parents. Both fragments must be in the lattice.
+	 * @param child
+	 * @param parent
+	 */
+	void link(RDFCubeFragment child, RDFCubeFragment parent) {
+		addEdge(child, parent);
+	}
+	
+	/**
+	 * Records that the metadata fragment joins the given fragment.
+	 * @param fragment
+	 * @param metadataFragment
+	 */
+	void addMetadataLink(RDFCubeFragment fragment, RDFCubeFragment metadataFragment) {
+		metadataMap.put(fragment, metadataFragment);
+	}
+	
+	/**
+	 * Verifies whether two lattices contain the same fragments, with the same sizes,
+	 * the same parent relationships and the same metadata links.
+	 * @param other
+	 * @return
+	 */
+	boolean hasSameFragments(FragmentLattice other) {
+		if (root.size() != other.root.size() 
+				|| !partitionsFullSignatureMap.keySet().equals(other.partitionsFullSignatureMap.keySet())
+				|| !metadataMap.get(root).equals(other.metadataMap.get(other.root)))
+			return false;
+		
+		for (RDFCubeFragment fragment : partitionsFullSignatureMap.values()) {
+			RDFCubeFragment otherFragment = other.partitionsFullSignatureMap.get(fragment.getSignatures());
+			if (fragment.size() != otherFragment.size() 
+					|| fragment.isMetadata() != otherFragment.isMetadata()
+					|| !parentsGraph.get(fragment).equals(other.parentsGraph.get(otherFragment))
+					|| !metadataMap.get(fragment).equals(other.metadataMap.get(otherFragment)))
+				return false;
+		}
+		
+		return true;
 	}
 
 	private boolean addEdge(RDFCubeFragment child, RDFCubeFragment parent) {			
+		closureIndex = null;
 		boolean result = parentsGraph.put(child, parent);
 		childrenGraph.put(parent, child);
 		return result;
@@ -244,5 +719,169 @@ public class FragmentLattice implements Iterable<RDFCubeFragment>{
 	public int size() {
 		return parentsGraph.size() + 1;
 	}
+	
+	public RDFCubeFragment getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Returns the most specific fragment that contains all the quads matching the pattern:
+	 * the fragment of the relation and the provenance identifier, of the relation, of the
+	 * provenance identifier or the root, depending on which of them the pattern binds. Subjects
+	 * and objects do not restrict the fragment. The domain and dimension fragments never cover
+	 * a pattern by themselves, but they can answer it as ancestors of the covering fragment.
+	 * @param pattern Quad pattern where null components are variables
+	 * @return null if no quad in the cube can match the pattern
+	 */
+	public RDFCubeFragment getCoveringFragment(Quadruple<String, String, String, String> pattern) {
+		String relation = pattern.getSecond();
+		String provenanceIdentifier = pattern.getFourth();
+		if (relation == null) {
+			if (provenanceIdentifier == null)
+				return root;
+
+			return getFragment(new Quadruple<String, String, String, String>(null, null, null, provenanceIdentifier));
+		}
+		
+		return getFragment(getRelationSignature(relation, provenanceIdentifier));
+	}
+
+	/**
+	 * Returns the children of the fragment if they split it into disjoint parts, that is, the
+	 * fragments of the relation and every provenance identifier for a relation fragment, and
+	 * the fragments of every relation and the provenance identifier for a provenance fragment.
+	 * The children of other fragments overlap, so the result is empty for them.
+	 * @param fragment
+	 * @return
+	 */
+	public Set<RDFCubeFragment> getParts(RDFCubeFragment fragment) {
+		if (fragment.isRoot() || fragment.getSignatures().size() != 1)
+			return Collections.emptySet();
+
+		Quadruple<String, String, String, String> signature = fragment.getFirstSignature();
+		boolean relationFragment = signature.getSecond() != null && signature.getFourth() == null;
+		boolean provenanceFragment = signature.getFirst() == null && signature.getSecond() == null
+				&& signature.getThird() == null && signature.getFourth() != null;
+		if (!relationFragment && !provenanceFragment)
+			return Collections.emptySet();
+
+		return Collections.unmodifiableSet(new LinkedHashSet<>(childrenGraph.get(fragment)));
+	}
+	
+	/**
+	 * Returns the fragments of the lattice that contain the given quad, starting with the root.
+	 * Every fragment comes after its ancestors.
+	 * @param quad
+	 * @return
+	 */
+	public List<RDFCubeFragment> getContainingFragments(Quadruple<String, String, String, String> quad) {
+		String provenanceIdentifier = quad.getFourth();
+		String relation = quad.getSecond();
+		Quadruple<String, String, String, String> relationSignature = getRelationSignature(relation, null);
+		List<RDFCubeFragment> candidates = new ArrayList<>(5);
+		candidates.add(getFragment(new Quadruple<String, String, String, String>(null, null, null, provenanceIdentifier)));
+		if (relationSignature.getFirst() != null) {
+			candidates.add(getFragment(new Quadruple<String, String, String, String>(relationSignature.getFirst(), null, null, null)));
+		}
+		List<Set<Quadruple<String, String, String, String>>> relationDimensions = dimensionSignatures.get(relation);
+		if (relationDimensions != null) {
+			for (Set<Quadruple<String, String, String, String>> dimensionSignature : relationDimensions) {
+				candidates.add(partitionsFullSignatureMap.get(dimensionSignature));
+			}
+		}
+		candidates.add(getFragment(relationSignature));
+		candidates.add(getFragment(getRelationSignature(relation, provenanceIdentifier)));
+
+		List<RDFCubeFragment> result = new ArrayList<>(candidates.size() + 1);
+		result.add(root);
+		for (RDFCubeFragment candidate : candidates) {
+			if (candidate != null) {
+				result.add(candidate);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the metadata fragments required to interpret the data in the given fragment.
+	 * @param fragment
+	 * @return
+	 */
+	public Set<RDFCubeFragment> getMetadataFragments(RDFCubeFragment fragment) {
+		return Collections.unmodifiableSet((Set<RDFCubeFragment>) metadataMap.get(fragment));
+	}
+	
+	/**
+	 * Returns the metadata fragments that join a domain of the given fragment directly, i.e.,
+	 * without the links inherited from its descendants. For a data fragment they are the links
+	 * computed by {@link #linkData2MetadataFragments()} for the fragment itself; for a metadata
+	 * fragment they are the next hop of a chain of metadata relations.
+	 * @param fragment
+	 * @return
+	 */
+	public Set<RDFCubeFragment> getJoiningMetadataFragments(RDFCubeFragment fragment) {
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		for (String domain : getDomains(fragment)) {
+			for (RDFCubeFragment candidateFragment : partitionsRangeOfSignatureMap.get(domain)) {
+				if (isLinkableMetadataFragment(candidateFragment) && !candidateFragment.equals(fragment)) {
+					result.add(candidateFragment);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the metadata fragments whose domain is a range of the given fragment, that is,
+	 * the next level of a dimension (e.g., w:city for w:ip, w:country for w:city). Ranges joined
+	 * by another signature of the fragment are left out, as for {@link #getDomains(RDFCubeFragment)}.
+	 * @param fragment
+	 * @return
+	 */
+	public Set<RDFCubeFragment> getBroaderMetadataFragments(RDFCubeFragment fragment) {
+		Set<String> domains = new HashSet<>(2);
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			if (signature.getFirst() != null) {
+				domains.add(signature.getFirst());
+			}
+		}
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		for (Quadruple<String, String, String, String> signature : fragment.getSignatures()) {
+			String range = signature.getThird();
+			if (range == null || domains.contains(range))
+				continue;
+
+			for (RDFCubeFragment candidateFragment : partitionsDomainOfSignatureMap.get(range)) {
+				if (isLinkableMetadataFragment(candidateFragment) && !candidateFragment.equals(fragment)) {
+					result.add(candidateFragment);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	public RDFCubeStructure getStructure() {
+		return structure;
+	}
+	
+	/**
+	 * Estimates the number of results of joining the subjects of a data fragment with the
+	 * objects of one of its metadata fragments, assuming the join values of the fragment with
+	 * fewer distinct values are contained in the other one: |F| * |M| / max(ndv(F.s), ndv(M.o)).
+	 * The distinct values are estimated with the sketches of the fragments.
+	 * @param fragment
+	 * @param metadataFragment
+	 * @return
+	 */
+	public double estimateMetadataJoinSize(RDFCubeFragment fragment, RDFCubeFragment metadataFragment) {
+		long distinctValues = Math.max(fragment.estimateDistinctSubjects(), metadataFragment.estimateDistinctObjects());
+		if (distinctValues == 0)
+			return 0.0;
+		
+		return (double)fragment.size() * metadataFragment.size() / distinctValues;
+	}
 		
 }
@@ -0,0 +1,236 @@
+package rdfcube;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+import rdfcube.sketch.HyperLogLog;
+import rdfcube.types.Quadruple;
+
+/**
+ * Saves and loads fragments lattices in a versioned binary format, so that a lattice can be
+ * used without parsing and registering the cube again. The file is laid out in sections
+ * that are read sequentially from a memory mapping:
+ * <ol>
+ * <li> Header: magic number and version
+ * <li> String table: the distinct terms used in the signatures
+ * <li> Fragments in registration order (the root first): kind, size, signatures
+ * as indexes in the string table and the sketches of distinct subjects and objects
+ * <li> Edges from children to parents as pairs of fragment indexes
+ * <li> Metadata links as pairs of fragment indexes
+ * </ol>
+ * The snapshot does not contain the cube, which is provided when the lattice is loaded.
+ * Snapshots older than version 3 predate the relation, domain and dimension fragments,
+ * so they are rejected and must be rebuilt from the cube.
+ *
+ */
+public class FragmentLatticeSnapshot {
+
+	private static final int magic = 0x52444c54;
+
+	private static final int version = 3;
+
+	private static final byte dataFragment = 0;
+
+	private static final byte metadataFragment = 1;
+
+	private static final int nullString = -1;
+
+	private FragmentLatticeSnapshot() {}
+
+	/**
+	 * Writes the lattice to the given file.
+	 * @param lattice
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void save(FragmentLattice lattice, File file) throws IOException {
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		for (int id = 0; id < closure.size(); ++id) {
+			for (Quadruple<String, String, String, String> signature : closure.getFragment(id).getSignatures()) {
+				for (String term : new String[] {signature.getFirst(), signature.getSecond(),
+						signature.getThird(), signature.getFourth()}) {
+					if (term != null && !strings.containsKey(term)) {
+						strings.put(term, strings.size());
+					}
+				}
+			}
+		}
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			output.writeInt(magic);
+			output.writeInt(version);
+
+			output.writeInt(strings.size());
+			for (String term : strings.keySet()) {
+				byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+
+			output.writeInt(closure.size());
+			for (int id = 0; id < closure.size(); ++id) {
+				RDFCubeFragment fragment = closure.getFragment(id);
+				output.writeByte(fragment.isMetadata() ? metadataFragment : dataFragment);
+				output.writeLong(fragment.size());
+				Set<Quadruple<String, String, String, String>> signatures = fragment.getSignatures();
+				output.writeInt(signatures.size());
+				for (Quadruple<String, String, String, String> signature : signatures) {
+					output.writeInt(getStringIndex(signature.getFirst(), strings));
+					output.writeInt(getStringIndex(signature.getSecond(), strings));
+					output.writeInt(getStringIndex(signature.getThird(), strings));
+					output.writeInt(getStringIndex(signature.getFourth(), strings));
+				}
+				fragment.getSubjectSketch().write(output);
+				fragment.getObjectSketch().write(output);
+			}
+
+			List<int[]> edges = new ArrayList<>();
+			List<int[]> links = new ArrayList<>();
+			for (int id = 0; id < closure.size(); ++id) {
+				RDFCubeFragment fragment = closure.getFragment(id);
+				for (RDFCubeFragment parent : lattice.getParents(fragment)) {
+					edges.add(new int[] {id, closure.getId(parent)});
+				}
+				for (RDFCubeFragment metadata : lattice.getMetadataFragments(fragment)) {
+					links.add(new int[] {id, closure.getId(metadata)});
+				}
+			}
+			writePairs(edges, output);
+			writePairs(links, output);
+		}
+	}
+
+	private static int getStringIndex(String term, Map<String, Integer> strings) {
+		return term == null ? nullString : strings.get(term);
+	}
+
+	private static void writePairs(List<int[]> pairs, DataOutputStream output) throws IOException {
+		output.writeInt(pairs.size());
+		for (int[] pair : pairs) {
+			output.writeInt(pair[0]);
+			output.writeInt(pair[1]);
+		}
+	}
+
+	/**
+	 * Reads a lattice from a snapshot file.
+	 * @param file
+	 * @param structure Structure of the cube the lattice was built from
+	 * @param data Source of the cube the lattice was built from
+	 * @return
+	 * @throws IOException
+	 */
+	public static FragmentLattice load(File file, RDFCubeStructure structure, RDFCubeDataSource data) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.remaining() < 8 || buffer.getInt() != magic)
+			throw new IOException(file + " is not a lattice snapshot");
+
+		int fileVersion = buffer.getInt();
+		if (fileVersion != version)
+			throw new IOException(file + " has version " + fileVersion + ", expected " + version
+					+ ", rebuild the snapshot from the cube");
+
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; ++i) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		RDFCubeFragment[] fragments = new RDFCubeFragment[buffer.getInt()];
+		for (int id = 0; id < fragments.length; ++id) {
+			byte kind = buffer.get();
+			long size = buffer.getLong();
+			int nSignatures = buffer.getInt();
+			RDFCubeFragment fragment = null;
+			for (int i = 0; i < nSignatures; ++i) {
+				Quadruple<String, String, String, String> signature = new Quadruple<>(getString(buffer, strings),
+						getString(buffer, strings), getString(buffer, strings), getString(buffer, strings));
+				if (fragment == null) {
+					if (id == 0) {
+						fragment = FragmentLattice.createFragment();
+					} else if (kind == metadataFragment) {
+						fragment = new RDFCubeMetadataFragment(signature);
+					} else {
+						fragment = new RDFCubeDataFragment(signature);
+					}
+				} else {
+					fragment.addSignature(signature);
+				}
+			}
+			fragment.increaseSize(size);
+			fragment.setSketches(HyperLogLog.read(buffer), HyperLogLog.read(buffer));
+			fragments[id] = fragment;
+		}
+
+		FragmentLattice lattice = new FragmentLattice(fragments[0], structure, data);
+		for (int id = 1; id < fragments.length; ++id) {
+			lattice.addFragment(fragments[id]);
+		}
+
+		int nEdges = buffer.getInt();
+		for (int i = 0; i < nEdges; ++i) {
+			RDFCubeFragment child = fragments[buffer.getInt()];
+			lattice.link(child, fragments[buffer.getInt()]);
+		}
+
+		int nLinks = buffer.getInt();
+		for (int i = 0; i < nLinks; ++i) {
+			RDFCubeFragment fragment = fragments[buffer.getInt()];
+			lattice.addMetadataLink(fragment, fragments[buffer.getInt()]);
+		}
+
+		return lattice;
+	}
+
+	private static String getString(MappedByteBuffer buffer, String[] strings) {
+		int index = buffer.getInt();
+		return index == nullString ? null : strings[index];
+	}
+
+	/**
+	 * Builds the lattice of a cube and saves it, or loads a saved lattice.
+	 * Usage: save cube-file schema-file snapshot-file | load snapshot-file schema-file
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		long start = System.nanoTime();
+		if (args[0].equals("save")) {
+			RDFCubeDataSource data = InMemoryRDFCubeDataSource.build(args[1]);
+			RDFCubeStructure schema = RDFCubeStructure.build(args[2]);
+			FragmentLattice lattice = new ExampleFragmentLatticeBuilder().build(data, schema);
+			save(lattice, new File(args[3]));
+			System.out.println("Lattice with " + lattice.getClosureIndex().size() + " fragments built and saved in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		} else {
+			RDFCubeStructure schema = RDFCubeStructure.build(args[2]);
+			FragmentLattice lattice = load(new File(args[1]), schema, null);
+			System.out.println("Lattice with " + lattice.getClosureIndex().size() + " fragments loaded in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		}
+	}
+
+}
@@ -1,77 +1,214 @@
 package rdfcube;
 
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.PriorityQueue;
 import java.util.Set;
 
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
+import rdfcube.metrics.PipelineMetrics;
+
+/**
+ * Greedy selection in the spirit of Harinarayan et al. At every iteration the selector
+ * picks the data fragment with the highest benefit per unit of space and adds it, along with
+ * its metadata fragments, to the selection until the budget is exhausted. The benefit of a
+ * fragment is the reduction in the number of triples scanned to answer a query on each fragment
+ * it contains (itself and its descendants), given that a query is answered from the smallest
+ * selected fragment containing it or, if none, from the whole cube.
+ *
+ */
 public class GreedyFragmentsSelector implements FragmentsSelector {
 
 	@Override
 	public Set<RDFCubeFragment> select(FragmentLattice lattice, long budget) {
+		SelectionCurve curve = sweep(lattice, budget);
+		PipelineMetrics.get().selectionDone(curve.getCost(budget));
+
+		return curve.getSelection(budget);
+	}
+
+	/**
+	 * Runs the greedy algorithm once up to the given budget and records its picks, so that
+	 * the selection of any smaller budget is a prefix of them.
+	 * @param lattice
+	 * @param maxBudget
+	 * @return
+	 */
+	public SelectionCurve sweep(FragmentLattice lattice, long maxBudget) {
 		Set<RDFCubeFragment> result = new LinkedHashSet<>();
-		PriorityQueue<Pair<RDFCubeFragment, Float>> benefitQueue = new PriorityQueue<>(lattice.size(), 
-				new Comparator<Pair<RDFCubeFragment, Float>>(
-						) {
-
-							@Override
-							public int compare(Pair<RDFCubeFragment, Float> o1, Pair<RDFCubeFragment, Float> o2) {
-								int compare = Float.compare(o1.getRight(), o2.getRight());
-								if (compare == 0) {
-									return Long.compare(o1.getLeft().size(), o2.getLeft().size());
-								} else {
-									return compare;
-								}
-								
-							}
-			
-				});
+		SelectionCurve curve = new SelectionCurve(maxBudget);
+		PriorityQueue<Pair<RDFCubeFragment, Float>> benefitQueue = new PriorityQueue<>(lattice.size(),
+				getBenefitComparator(lattice.getClosureIndex()));
 		long cost = 0;
-		calculateBenefits(lattice, benefitQueue, result);
 		while (true) {
+			PipelineMetrics.get().greedyIteration();
+			calculateBenefits(lattice, benefitQueue, result);
 			long additionalCost = 0;
 			Pair<RDFCubeFragment, Float> best =  benefitQueue.poll();
+			if (best == null || best.getRight() <= 0.0f) {
+				curve.setComplete(true);
+				break;
+			}
+
 			RDFCubeFragment bestFragment = best.getLeft();
 			additionalCost += bestFragment.size();
-			Set<RDFCubeFragment> metaFragments = lattice.getMetadataFragments(bestFragment);
-			for (RDFCubeFragment metaFragment : metaFragments) {
-				if (!result.contains) {
+			Set<RDFCubeFragment> metaFragments = new LinkedHashSet<>();
+			for (RDFCubeFragment metaFragment : lattice.getMetadataFragments(bestFragment)) {
+				if (!result.contains(metaFragment)) {
 					additionalCost += metaFragment.size();
 					metaFragments.add(metaFragment);
 				}
 			}
-			if (cost + additionalCost > budget)
+			if (cost + additionalCost > maxBudget)
 				break;
-			
+
+			Set<RDFCubeFragment> added = new LinkedHashSet<>(metaFragments);
+			added.add(bestFragment);
+			long savings = getSavings(added, result, lattice);
 			result.add(bestFragment);
 			result.addAll(metaFragments);
 			cost += additionalCost;
+			curve.addStep(bestFragment, metaFragments, additionalCost, savings);
 		}
-		
-		return result;
+
+		return curve;
+	}
+
+	/**
+	 * Sweeps the whole budget range, i.e., runs the greedy algorithm until no fragment has
+	 * a positive benefit.
+	 * @param lattice
+	 * @return
+	 */
+	public SelectionCurve sweep(FragmentLattice lattice) {
+		return sweep(lattice, Long.MAX_VALUE);
 	}
 
 	/**
-	 * 
+	 * It computes the benefit of every data fragment that has not been selected yet
+	 * and puts them in the queue.
 	 * @param lattice
 	 * @param benefitQueue
 	 * @param selectedSoFar
 	 */
-	private void calculateBenefits(FragmentLattice lattice, PriorityQueue<Pair<RDFCubeFragment, Float>> benefitQueue, 
+	private void calculateBenefits(FragmentLattice lattice, PriorityQueue<Pair<RDFCubeFragment, Float>> benefitQueue,
 			Set<RDFCubeFragment> selectedSoFar) {
 		benefitQueue.clear();
 		for (RDFCubeFragment fragment : lattice) {
-			if (!fragment.isMetadata()) {
+			if (!fragment.isMetadata() && !selectedSoFar.contains(fragment)) {
 				float benefit = getBenefit(fragment, selectedSoFar, lattice);
-				benefitQueue.add(new Pair<>(fragment, benefit));
+				benefitQueue.add(new ImmutablePair<>(fragment, benefit));
+			}
+		}
+		PipelineMetrics.get().benefitsEvaluated(benefitQueue.size());
+	}
+
+	/**
+	 * Returns the benefit per unit of space of adding the fragment to the current selection.
+	 * @param fragment
+	 * @param selectedSoFar
+	 * @param lattice
+	 * @return
+	 */
+	static float getBenefit(RDFCubeFragment fragment, Set<RDFCubeFragment> selectedSoFar, FragmentLattice lattice) {
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		int id = closure.getId(fragment);
+		long savings = Math.max(0, getCost(id, selectedSoFar, lattice) - fragment.size());
+		BitSet descendants = closure.getDescendantIds(id);
+		for (int descendant = descendants.nextSetBit(0); descendant >= 0;
+				descendant = descendants.nextSetBit(descendant + 1)) {
+			savings += Math.max(0, getCost(descendant, selectedSoFar, lattice) - fragment.size());
+		}
+
+		return (float)savings / Math.max(1, fragment.size());
+	}
+
+	/**
+	 * Returns the reduction in the number of triples scanned to answer a query on every
+	 * fragment of the lattice when the given fragments are added to the selection.
+	 * @param added Fragments not in the selection yet
+	 * @param selectedSoFar
+	 * @param lattice
+	 * @return
+	 */
+	static long getSavings(Set<RDFCubeFragment> added, Set<RDFCubeFragment> selectedSoFar, FragmentLattice lattice) {
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		// Only the added fragments and their descendants can be answered more cheaply
+		BitSet affected = new BitSet(closure.size());
+		for (RDFCubeFragment fragment : added) {
+			int id = closure.getId(fragment);
+			affected.set(id);
+			affected.or(closure.getDescendantIds(id));
+		}
+
+		long savings = 0;
+		for (int id = affected.nextSetBit(0); id >= 0; id = affected.nextSetBit(id + 1)) {
+			long oldCost = getCost(id, selectedSoFar, lattice);
+			long newCost = oldCost;
+			for (RDFCubeFragment fragment : added) {
+				int addedId = closure.getId(fragment);
+				if (addedId == id || closure.getDescendantIds(addedId).get(id)) {
+					newCost = Math.min(newCost, fragment.size());
+				}
+			}
+			savings += oldCost - newCost;
+		}
+
+		return savings;
+	}
+
+	/**
+	 * Returns the number of triples scanned to answer a query on the given fragment, that is,
+	 * the size of the smallest selected fragment that contains it or the size of the cube.
+	 * @param id Identifier of the fragment in the closure index
+	 * @param selectedSoFar
+	 * @param lattice
+	 * @return
+	 */
+	static long getCost(int id, Set<RDFCubeFragment> selectedSoFar, FragmentLattice lattice) {
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		long cost = lattice.getRoot().size();
+		RDFCubeFragment fragment = closure.getFragment(id);
+		if (selectedSoFar.contains(fragment)) {
+			cost = Math.min(cost, fragment.size());
+		}
+		BitSet ancestors = closure.getAncestorIds(id);
+		for (int ancestor = ancestors.nextSetBit(0); ancestor >= 0; ancestor = ancestors.nextSetBit(ancestor + 1)) {
+			RDFCubeFragment ancestorFragment = closure.getFragment(ancestor);
+			if (selectedSoFar.contains(ancestorFragment)) {
+				cost = Math.min(cost, ancestorFragment.size());
 			}
 		}
+
+		return cost;
 	}
-	
-	private float getBenefit(RDFCubeFragment fragment, Set<RDFCubeFragment> selectedSoFar, FragmentLattice lattice) {
-		
+
+	/**
+	 * Order used to pick fragments: highest benefit first, then the smallest fragment and
+	 * finally the fragment registered first in the lattice, so that the selection is deterministic.
+	 * @param closure
+	 * @return
+	 */
+	static Comparator<Pair<RDFCubeFragment, Float>> getBenefitComparator(final FragmentClosureIndex closure) {
+		return new Comparator<Pair<RDFCubeFragment, Float>>() {
+
+			@Override
+			public int compare(Pair<RDFCubeFragment, Float> o1, Pair<RDFCubeFragment, Float> o2) {
+				int compare = Float.compare(o2.getRight(), o1.getRight());
+				if (compare == 0) {
+					compare = Long.compare(o1.getLeft().size(), o2.getLeft().size());
+				}
+				if (compare == 0) {
+					compare = Integer.compare(closure.getId(o1.getLeft()), closure.getId(o2.getLeft()));
+				}
+
+				return compare;
+			}
+
+		};
 	}
 
 }
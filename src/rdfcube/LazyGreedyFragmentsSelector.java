@@ -0,0 +1,115 @@
+package rdfcube;
+
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.metrics.PipelineMetrics;
+
+/**
+ * Lazy (CELF-style) version of {@link GreedyFragmentsSelector}. Benefits can only decrease
+ * when the selection grows, so the benefit stored in the queue for a fragment is an upper
+ * bound of its current benefit. The selector only re-evaluates the fragment at the head of
+ * the queue: if its benefit is up to date it is the best choice, otherwise it is updated and
+ * pushed back. The selection is the same as the one of the plain greedy algorithm.
+ *
+ */
+public class LazyGreedyFragmentsSelector implements FragmentsSelector {
+
+	/**
+	 * Number of benefit evaluations performed in the last call to select
+	 */
+	private long evaluations;
+
+	/**
+	 * Number of benefit evaluations the plain greedy algorithm would have performed
+	 * in the last call to select
+	 */
+	private long greedyEvaluations;
+
+	@Override
+	public Set<RDFCubeFragment> select(FragmentLattice lattice, long budget) {
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		PriorityQueue<Pair<RDFCubeFragment, Float>> benefitQueue = new PriorityQueue<>(lattice.size(),
+				GreedyFragmentsSelector.getBenefitComparator(closure));
+		// Iteration in which the benefit of each fragment was last computed
+		int[] evaluationIteration = new int[closure.size()];
+		int iteration = 0;
+		evaluations = 0;
+		greedyEvaluations = 0;
+
+		for (RDFCubeFragment fragment : lattice) {
+			if (!fragment.isMetadata()) {
+				benefitQueue.add(new MutablePair<>(fragment,
+						GreedyFragmentsSelector.getBenefit(fragment, result, lattice)));
+				++evaluations;
+			}
+		}
+		greedyEvaluations += benefitQueue.size();
+
+		long cost = 0;
+		while (true) {
+			Pair<RDFCubeFragment, Float> best = benefitQueue.poll();
+			if (best == null)
+				break;
+
+			RDFCubeFragment bestFragment = best.getLeft();
+			int id = closure.getId(bestFragment);
+			if (evaluationIteration[id] < iteration) {
+				// Stale upper bound, refresh it and try again
+				best.setValue(GreedyFragmentsSelector.getBenefit(bestFragment, result, lattice));
+				evaluationIteration[id] = iteration;
+				benefitQueue.add(best);
+				++evaluations;
+				continue;
+			}
+
+			PipelineMetrics.get().greedyIteration();
+			if (best.getRight() <= 0.0f)
+				break;
+
+			long additionalCost = bestFragment.size();
+			Set<RDFCubeFragment> metaFragments = new LinkedHashSet<>();
+			for (RDFCubeFragment metaFragment : lattice.getMetadataFragments(bestFragment)) {
+				if (!result.contains(metaFragment)) {
+					additionalCost += metaFragment.size();
+					metaFragments.add(metaFragment);
+				}
+			}
+			if (cost + additionalCost > budget)
+				break;
+
+			result.add(bestFragment);
+			result.addAll(metaFragments);
+			cost += additionalCost;
+			++iteration;
+			greedyEvaluations += benefitQueue.size();
+		}
+		PipelineMetrics.get().benefitsEvaluated(evaluations);
+		PipelineMetrics.get().selectionDone(cost);
+
+		return result;
+	}
+
+	/**
+	 * Number of benefit evaluations performed by the last selection.
+	 * @return
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Number of benefit evaluations the last selection saved with respect to
+	 * {@link GreedyFragmentsSelector}.
+	 * @return
+	 */
+	public long getSkippedEvaluations() {
+		return greedyEvaluations - evaluations;
+	}
+
+}
@@ -0,0 +1,136 @@
+package rdfcube;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+import rdfcube.types.Quadruple;
+
+/**
+ * Builds the fragments lattice using several threads. The source is cut into chunks
+ * of consecutive quads, each chunk is registered by a worker thread in its own partial
+ * lattice and the partial lattices are merged in the order of their chunks. This makes
+ * the result identical to the one of {@link ExampleFragmentLatticeBuilder}.
+ *
+ */
+public class ParallelFragmentLatticeBuilder implements FragmentLatticeBuilder {
+
+	public static final int defaultChunkSize = 65536;
+
+	private int nThreads;
+
+	private int chunkSize;
+
+	public ParallelFragmentLatticeBuilder(int nThreads, int chunkSize) {
+		if (nThreads < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("The number of threads and the chunk size must be positive");
+
+		this.nThreads = nThreads;
+		this.chunkSize = chunkSize;
+	}
+
+	public ParallelFragmentLatticeBuilder(int nThreads) {
+		this(nThreads, defaultChunkSize);
+	}
+
+	public ParallelFragmentLatticeBuilder() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	@Override
+	public FragmentLattice build(final RDFCubeDataSource data, final RDFCubeStructure schema) {
+		FragmentLattice lattice = new FragmentLattice(FragmentLattice.createFragment(), schema, data);
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		// Partial lattices waiting to be merged, in the order of their chunks. We bound
+		// their number so that at most a few chunks per thread are kept in memory.
+		Deque<Future<FragmentLattice>> pending = new ArrayDeque<>();
+		try {
+			Iterator<Quadruple<String, String, String, String>> iterator = data.iterator();
+			while (iterator.hasNext()) {
+				final List<Quadruple<String, String, String, String>> chunk = new ArrayList<>(chunkSize);
+				while (iterator.hasNext() && chunk.size() < chunkSize) {
+					// Some sources reuse the quad they return, so the chunk keeps copies
+					Quadruple<String, String, String, String> quad = iterator.next();
+					chunk.add(new Quadruple<>(quad.getFirst(), quad.getSecond(), quad.getThird(), quad.getFourth()));
+				}
+
+				pending.add(executor.submit(new Callable<FragmentLattice>() {
+					@Override
+					public FragmentLattice call() {
+						FragmentLattice partial = new FragmentLattice(FragmentLattice.createFragment(), schema, data);
+						for (Quadruple<String, String, String, String> quad : chunk) {
+							partial.registerTuple(quad);
+						}
+						return partial;
+					}
+				}));
+
+				if (pending.size() > 2 * nThreads) {
+					lattice.merge(pending.poll().get());
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				lattice.merge(pending.poll().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Lattice construction was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Lattice construction failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// Create the metadata relations between the fragments
+		lattice.linkData2MetadataFragments();
+
+		return lattice;
+	}
+
+	/**
+	 * Builds the lattice of the given cube sequentially and in parallel with an
+	 * increasing number of threads, verifies that all lattices are identical and reports
+	 * the throughput of each run.
+	 * Usage: cube-file schema-file [max-threads]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		RDFCubeDataSource data = InMemoryRDFCubeDataSource.build(args[0]);
+		RDFCubeStructure schema = RDFCubeStructure.build(args[1]);
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		long start = System.nanoTime();
+		FragmentLattice sequential = new ExampleFragmentLatticeBuilder().build(data, schema);
+		long quads = sequential.getRoot().size();
+		report("sequential", quads, System.nanoTime() - start);
+
+		for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+			start = System.nanoTime();
+			FragmentLattice parallel = new ParallelFragmentLatticeBuilder(nThreads).build(data, schema);
+			report(nThreads + " threads", quads, System.nanoTime() - start);
+			if (!parallel.hasSameFragments(sequential)) {
+				System.err.println("The lattice built with " + nThreads + " threads differs from the sequential one");
+			}
+		}
+	}
+
+	private static void report(String label, long quads, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println(label + ": " + quads + " quads in " + String.format("%.3f", seconds) + " s ("
+				+ String.format("%.0f", quads / seconds) + " quads/s)");
+	}
+
+}
@@ -0,0 +1,142 @@
+package rdfcube;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.metrics.PipelineMetrics;
+
+/**
+ * Multi-threaded version of {@link GreedyFragmentsSelector}. In every iteration the benefits
+ * of the candidate fragments are computed concurrently against an immutable copy of the current
+ * selection. The best fragment is then chosen sequentially with the same order as the plain
+ * greedy selector, hence both selectors return the same result.
+ *
+ */
+public class ParallelGreedyFragmentsSelector implements FragmentsSelector {
+
+	private ExecutorService executor;
+
+	private int nTasks;
+
+	/**
+	 * Builds a selector that evaluates benefits in the given executor. The executor
+	 * is not shut down by the selector.
+	 * @param executor
+	 * @param nTasks Number of tasks the candidates are split into in every iteration
+	 */
+	public ParallelGreedyFragmentsSelector(ExecutorService executor, int nTasks) {
+		if (nTasks < 1)
+			throw new IllegalArgumentException("The number of tasks must be positive");
+
+		this.executor = executor;
+		this.nTasks = nTasks;
+	}
+
+	/**
+	 * Builds a selector that evaluates benefits in the common fork/join pool.
+	 */
+	public ParallelGreedyFragmentsSelector() {
+		this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+
+	@Override
+	public Set<RDFCubeFragment> select(FragmentLattice lattice, long budget) {
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		// Built here so that worker threads only read it
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		Comparator<Pair<RDFCubeFragment, Float>> comparator = GreedyFragmentsSelector.getBenefitComparator(closure);
+		long cost = 0;
+		while (true) {
+			PipelineMetrics.get().greedyIteration();
+			Pair<RDFCubeFragment, Float> best = null;
+			for (Pair<RDFCubeFragment, Float> candidate : calculateBenefits(lattice, result)) {
+				if (best == null || comparator.compare(candidate, best) < 0) {
+					best = candidate;
+				}
+			}
+			if (best == null || best.getRight() <= 0.0f)
+				break;
+
+			RDFCubeFragment bestFragment = best.getLeft();
+			long additionalCost = bestFragment.size();
+			Set<RDFCubeFragment> metaFragments = new LinkedHashSet<>();
+			for (RDFCubeFragment metaFragment : lattice.getMetadataFragments(bestFragment)) {
+				if (!result.contains(metaFragment)) {
+					additionalCost += metaFragment.size();
+					metaFragments.add(metaFragment);
+				}
+			}
+			if (cost + additionalCost > budget)
+				break;
+
+			result.add(bestFragment);
+			result.addAll(metaFragments);
+			cost += additionalCost;
+		}
+		PipelineMetrics.get().selectionDone(cost);
+
+		return result;
+	}
+
+	/**
+	 * Computes concurrently the benefit of every data fragment that has not been selected yet.
+	 * @param lattice
+	 * @param selectedSoFar
+	 * @return
+	 */
+	private List<Pair<RDFCubeFragment, Float>> calculateBenefits(final FragmentLattice lattice,
+			Set<RDFCubeFragment> selectedSoFar) {
+		final List<RDFCubeFragment> candidates = new ArrayList<>();
+		for (RDFCubeFragment fragment : lattice) {
+			if (!fragment.isMetadata() && !selectedSoFar.contains(fragment)) {
+				candidates.add(fragment);
+			}
+		}
+
+		final Set<RDFCubeFragment> snapshot = Collections.unmodifiableSet(new LinkedHashSet<>(selectedSoFar));
+		int sliceSize = (candidates.size() + nTasks - 1) / nTasks;
+		List<Callable<List<Pair<RDFCubeFragment, Float>>>> tasks = new ArrayList<>();
+		for (int start = 0; start < candidates.size(); start += sliceSize) {
+			final List<RDFCubeFragment> slice = candidates.subList(start, Math.min(start + sliceSize, candidates.size()));
+			tasks.add(new Callable<List<Pair<RDFCubeFragment, Float>>>() {
+				@Override
+				public List<Pair<RDFCubeFragment, Float>> call() {
+					List<Pair<RDFCubeFragment, Float>> benefits = new ArrayList<>(slice.size());
+					for (RDFCubeFragment fragment : slice) {
+						benefits.add(new ImmutablePair<>(fragment,
+								GreedyFragmentsSelector.getBenefit(fragment, snapshot, lattice)));
+					}
+					return benefits;
+				}
+			});
+		}
+
+		List<Pair<RDFCubeFragment, Float>> result = new ArrayList<>(candidates.size());
+		try {
+			for (Future<List<Pair<RDFCubeFragment, Float>>> future : executor.invokeAll(tasks)) {
+				result.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Fragment selection was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Benefit evaluation failed", e.getCause());
+		}
+		PipelineMetrics.get().benefitsEvaluated(result.size());
+
+		return result;
+	}
+
+}
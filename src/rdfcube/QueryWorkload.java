@@ -0,0 +1,101 @@
+package rdfcube;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.univocity.parsers.tsv.TsvParser;
+import com.univocity.parsers.tsv.TsvParserSettings;
+
+import rdfcube.types.Quadruple;
+
+/**
+ * A log of quad patterns with their frequencies. Unbound positions are represented
+ * with null, so identical patterns are aggregated into a single entry regardless of
+ * the names of their variables.
+ *
+ */
+public class QueryWorkload {
+
+	private Map<Quadruple<String, String, String, String>, Long> frequencies;
+
+	private long totalFrequency;
+
+	public QueryWorkload() {
+		frequencies = new LinkedHashMap<>();
+		totalFrequency = 0;
+	}
+
+	/**
+	 * It builds a workload from a file containing one pattern per line in TSV format:
+	 * subject relation object provenance-id [frequency]. Variables start with '?' and can also
+	 * be left empty. The frequency is 1 if omitted.
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public static QueryWorkload build(String filePath) throws IOException {
+		QueryWorkload workload = new QueryWorkload();
+
+		TsvParserSettings settings = new TsvParserSettings();
+		settings.getFormat().setLineSeparator("\n");
+		TsvParser parser = new TsvParser(settings);
+
+		parser.beginParsing(new BufferedReader(new FileReader(filePath)));
+
+		String[] row;
+		while ((row = parser.parseNext()) != null) {
+			long frequency = row.length > 4 && row[4] != null ? Long.parseLong(row[4].trim()) : 1;
+			workload.add(new Quadruple<>(term(row, 0), term(row, 1), term(row, 2), term(row, 3)), frequency);
+		}
+
+		return workload;
+	}
+
+	private static String term(String[] row, int position) {
+		if (position >= row.length || row[position] == null || row[position].startsWith("?"))
+			return null;
+
+		return row[position];
+	}
+
+	/**
+	 * Adds an occurrence of the pattern to the workload.
+	 * @param pattern Null components are variables
+	 * @param frequency
+	 */
+	public void add(Quadruple<String, String, String, String> pattern, long frequency) {
+		Long current = frequencies.get(pattern);
+		frequencies.put(pattern, current == null ? frequency : current + frequency);
+		totalFrequency += frequency;
+	}
+
+	/**
+	 * Returns the distinct patterns of the workload with their aggregated frequencies.
+	 * @return
+	 */
+	public Map<Quadruple<String, String, String, String>, Long> getFrequencies() {
+		return Collections.unmodifiableMap(frequencies);
+	}
+
+	/**
+	 * Number of distinct patterns.
+	 * @return
+	 */
+	public int size() {
+		return frequencies.size();
+	}
+
+	public long getTotalFrequency() {
+		return totalFrequency;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + frequencies.size() + " distinct patterns, " + totalFrequency + " queries]";
+	}
+
+}
@@ -1,8 +1,10 @@
 package rdfcube;
 
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import rdfcube.sketch.HyperLogLog;
 import rdfcube.types.Quadruple;
 
 public abstract class RDFCubeFragment {
@@ -14,11 +16,20 @@ public abstract class RDFCubeFragment {
 	
 	private boolean root;
 	
+	/**
+	 * Sketches of the distinct subjects and objects of the triples in the fragment
+	 */
+	private HyperLogLog subjectSketch;
+	
+	private HyperLogLog objectSketch;
+	
 	protected RDFCubeFragment() {
 		signatures = new LinkedHashSet<>();
 		signatures.add(new Quadruple<String, String, String, String>(null, null, null, null));
 		root = true;
 		size = 0;
+		subjectSketch = new HyperLogLog();
+		objectSketch = new HyperLogLog();
 	}
 	
 	protected RDFCubeFragment(Quadruple<String, String, String, String> signature) {
@@ -26,13 +37,17 @@ public abstract class RDFCubeFragment {
 		signatures.add(signature);
 		root = false;
 		size = 0;
+		subjectSketch = new HyperLogLog();
+		objectSketch = new HyperLogLog();
 	}
 	
 	protected RDFCubeFragment(String provenanceId) {
 		signatures = new LinkedHashSet<>();
 		signatures.add(new Quadruple<String, String, String, String>(null, null, null, provenanceId));
 		root = false;
-		size = 0;		
+		size = 0;
+		subjectSketch = new HyperLogLog();
+		objectSketch = new HyperLogLog();
 	}
 	
 	public boolean isRoot() {
@@ -50,6 +65,19 @@ public abstract class RDFCubeFragment {
 		return signatures.iterator().next();
 	}
 	
+	/**
+	 * Adds a signature to the definition of the fragment, which then contains the
+	 * triples matching any of its signatures.
+	 * @param signature
+	 */
+	void addSignature(Quadruple<String, String, String, String> signature) {
+		signatures.add(signature);
+	}
+	
+	public Set<Quadruple<String, String, String, String>> getSignatures() {
+		return Collections.unmodifiableSet(signatures);
+	}
+	
 	public long size() {
 		return size;
 	}
@@ -58,6 +86,75 @@ public abstract class RDFCubeFragment {
 		++size;
 	}
 	
+	public void increaseSize(long delta) {
+		size += delta;
+	}
+	
+	public void decreaseSize() {
+		--size;
+	}
+	
+	/**
+	 * Adds the subject and object of a triple to the sketches of the fragment.
+	 * @param subjectHash Hash of the subject computed with {@link HyperLogLog#hash(String)}
+	 * @param objectHash Hash of the object computed with {@link HyperLogLog#hash(String)}
+	 */
+	void addToSketches(long subjectHash, long objectHash) {
+		subjectSketch.addHash(subjectHash);
+		objectSketch.addHash(objectHash);
+	}
+	
+	/**
+	 * Adds the sketches of another fragment to the sketches of this one.
+	 * @param other
+	 */
+	void mergeSketches(RDFCubeFragment other) {
+		subjectSketch.merge(other.subjectSketch);
+		objectSketch.merge(other.objectSketch);
+	}
+	
+	/**
+	 * Replaces the sketches of the fragment, e.g., with sketches read from a snapshot.
+	 */
+	void setSketches(HyperLogLog subjectSketch, HyperLogLog objectSketch) {
+		this.subjectSketch = subjectSketch;
+		this.objectSketch = objectSketch;
+	}
+	
+	/**
+	 * Sketch of the distinct subjects of the fragment. Removing triples does not
+	 * update it, so after deletions it describes a superset of the fragment.
+	 * @return
+	 */
+	public HyperLogLog getSubjectSketch() {
+		return subjectSketch;
+	}
+	
+	/**
+	 * Sketch of the distinct objects of the fragment. Removing triples does not
+	 * update it, so after deletions it describes a superset of the fragment.
+	 * @return
+	 */
+	public HyperLogLog getObjectSketch() {
+		return objectSketch;
+	}
+	
+	/**
+	 * Estimated number of distinct subjects, at most the size of the fragment.
+	 * @return
+	 */
+	public long estimateDistinctSubjects() {
+		return Math.min(size, subjectSketch.estimate());
+	}
+	
+	/**
+	 * Estimated number of distinct objects, at most the size of the fragment.
+	 * @return
+	 */
+	public long estimateDistinctObjects() {
+		return Math.min(size, objectSketch.estimate());
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
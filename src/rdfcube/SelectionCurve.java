@@ -0,0 +1,215 @@
+package rdfcube;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ordered picks of a greedy selection run up to a maximum budget, see
+ * {@link GreedyFragmentsSelector#sweep(FragmentLattice, long)}. The greedy algorithm stops at the
+ * first pick that exceeds the budget and its picks do not depend on the budget, so the selection
+ * for any smaller budget is the longest prefix of the picks whose cumulative cost fits in it.
+ *
+ */
+public class SelectionCurve {
+
+	/**
+	 * A data fragment picked by the greedy algorithm together with the metadata fragments
+	 * it pulled into the selection.
+	 */
+	public static class Step {
+
+		private RDFCubeFragment fragment;
+
+		private Set<RDFCubeFragment> metadataFragments;
+
+		private long cost;
+
+		private long cumulativeCost;
+
+		private long benefit;
+
+		private long cumulativeBenefit;
+
+		Step(RDFCubeFragment fragment, Set<RDFCubeFragment> metadataFragments, long cost, long cumulativeCost,
+				long benefit, long cumulativeBenefit) {
+			this.fragment = fragment;
+			this.metadataFragments = metadataFragments;
+			this.cost = cost;
+			this.cumulativeCost = cumulativeCost;
+			this.benefit = benefit;
+			this.cumulativeBenefit = cumulativeBenefit;
+		}
+
+		public RDFCubeFragment getFragment() {
+			return fragment;
+		}
+
+		/**
+		 * Metadata fragments selected along with the fragment, that is, those that were
+		 * not selected by a previous step.
+		 * @return
+		 */
+		public Set<RDFCubeFragment> getMetadataFragments() {
+			return Collections.unmodifiableSet(metadataFragments);
+		}
+
+		/**
+		 * Triples added to the selection by this step, including the metadata fragments.
+		 * @return
+		 */
+		public long getCost() {
+			return cost;
+		}
+
+		public long getCumulativeCost() {
+			return cumulativeCost;
+		}
+
+		/**
+		 * Reduction of the number of triples scanned to answer one query on every fragment
+		 * of the lattice brought by this step.
+		 * @return
+		 */
+		public long getBenefit() {
+			return benefit;
+		}
+
+		public long getCumulativeBenefit() {
+			return cumulativeBenefit;
+		}
+
+		@Override
+		public String toString() {
+			return fragment + " +" + metadataFragments.size() + " metadata fragments, cost " + cost + " (" + cumulativeCost
+					+ "), benefit " + benefit + " (" + cumulativeBenefit + ")";
+		}
+
+	}
+
+	private List<Step> steps;
+
+	private long maxBudget;
+
+	/**
+	 * True if the greedy algorithm stopped because no fragment had a positive benefit,
+	 * in which case larger budgets select the same fragments.
+	 */
+	private boolean complete;
+
+	SelectionCurve(long maxBudget) {
+		this.steps = new ArrayList<>();
+		this.maxBudget = maxBudget;
+		this.complete = false;
+	}
+
+	void addStep(RDFCubeFragment fragment, Set<RDFCubeFragment> metadataFragments, long cost, long benefit) {
+		Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+		steps.add(new Step(fragment, metadataFragments, cost, (last == null ? 0 : last.cumulativeCost) + cost,
+				benefit, (last == null ? 0 : last.cumulativeBenefit) + benefit));
+	}
+
+	void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public List<Step> getSteps() {
+		return Collections.unmodifiableList(steps);
+	}
+
+	public long getMaxBudget() {
+		return maxBudget;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Returns the number of steps selected with the given budget.
+	 * @param budget
+	 * @return
+	 * @throws IllegalArgumentException if the budget exceeds the one of the sweep and
+	 * the sweep stopped because of its budget.
+	 */
+	public int getPrefixLength(long budget) {
+		if (budget > maxBudget && !complete)
+			throw new IllegalArgumentException("The budget " + budget + " exceeds the budget of the sweep (" + maxBudget + ")");
+
+		// Cumulative costs are non-decreasing: find the first step that does not fit
+		int low = 0;
+		int high = steps.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (steps.get(middle).cumulativeCost <= budget) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the fragments the greedy algorithm selects with the given budget, in the
+	 * order it selects them.
+	 * @param budget
+	 * @return
+	 */
+	public Set<RDFCubeFragment> getSelection(long budget) {
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		int length = getPrefixLength(budget);
+		for (int i = 0; i < length; ++i) {
+			result.add(steps.get(i).fragment);
+			result.addAll(steps.get(i).metadataFragments);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of triples selected with the given budget.
+	 * @param budget
+	 * @return
+	 */
+	public long getCost(long budget) {
+		int length = getPrefixLength(budget);
+		return length == 0 ? 0 : steps.get(length - 1).cumulativeCost;
+	}
+
+	/**
+	 * Returns the benefit of the selection made with the given budget.
+	 * @param budget
+	 * @return
+	 */
+	public long getBenefit(long budget) {
+		int length = getPrefixLength(budget);
+		return length == 0 ? 0 : steps.get(length - 1).cumulativeBenefit;
+	}
+
+	/**
+	 * Writes the curve in TSV format, one line per step:
+	 * step fragment metadata-fragments cost cumulative-cost benefit cumulative-benefit
+	 * @param output
+	 */
+	public void export(PrintStream output) {
+		output.println("step\tfragment\tmetadata-fragments\tcost\tcumulative-cost\tbenefit\tcumulative-benefit");
+		for (int i = 0; i < steps.size(); ++i) {
+			Step step = steps.get(i);
+			output.println((i + 1) + "\t" + step.fragment + "\t" + step.metadataFragments.size() + "\t" + step.cost
+					+ "\t" + step.cumulativeCost + "\t" + step.benefit + "\t" + step.cumulativeBenefit);
+		}
+	}
+
+	@Override
+	public String toString() {
+		Step last = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+		return "[" + steps.size() + " steps, cost " + (last == null ? 0 : last.cumulativeCost) + ", benefit "
+				+ (last == null ? 0 : last.cumulativeBenefit) + (complete ? ", complete" : ", budget " + maxBudget) + "]";
+	}
+
+}
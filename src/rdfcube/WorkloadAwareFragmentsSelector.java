@@ -0,0 +1,280 @@
+package rdfcube;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.types.Quadruple;
+
+/**
+ * Greedy selection driven by a query workload. Each pattern of the workload is answered
+ * by scanning the smallest selected ancestor of the fragment that covers it (see
+ * {@link FragmentLattice#getCoveringFragment(Quadruple)}) or the smallest selected ancestors of its parts
+ * (see {@link FragmentLattice#getParts(RDFCubeFragment)}), whichever is cheaper, as the query engine does,
+ * or the whole cube if neither is possible. The selector picks at every iteration the fragment that
+ * maximizes the reduction of the expected number of scanned triples per unit of space.
+ * Patterns are grouped by their covering fragment before the selection starts, hence the cost of
+ * an iteration depends on the number of groups and not on the size of the log.
+ *
+ */
+public class WorkloadAwareFragmentsSelector implements FragmentsSelector {
+
+	private QueryWorkload workload;
+
+	/**
+	 * Expected number of triples scanned per query with the last selection
+	 */
+	private double expectedCost;
+
+	// Selection state, only valid during a call to select
+
+	private FragmentClosureIndex closure;
+
+	private long cubeSize;
+
+	/**
+	 * Covering fragment (id) of each group of patterns
+	 */
+	private List<Integer> groupCovers;
+
+	/**
+	 * Parts (ids) of the covering fragment of each group of patterns
+	 */
+	private List<int[]> groupParts;
+
+	private List<Long> groupFrequencies;
+
+	/**
+	 * Current cost of each group of patterns
+	 */
+	private long[] groupCosts;
+
+	/**
+	 * For each fragment, the groups whose cost may decrease if the fragment is selected
+	 */
+	private List<List<Integer>> affectedGroups;
+
+	/**
+	 * For each fragment, the smallest selected fragment that contains it (-1 for the whole cube)
+	 * and its size
+	 */
+	private int[] answeringFragment;
+
+	private long[] answeringSize;
+
+	public WorkloadAwareFragmentsSelector(QueryWorkload workload) {
+		this.workload = workload;
+	}
+
+	@Override
+	public Set<RDFCubeFragment> select(FragmentLattice lattice, long budget) {
+		initialize(lattice);
+		Set<RDFCubeFragment> result = new LinkedHashSet<>();
+		Comparator<Pair<RDFCubeFragment, Float>> comparator = GreedyFragmentsSelector.getBenefitComparator(closure);
+		long cost = 0;
+		while (true) {
+			Pair<RDFCubeFragment, Float> best = null;
+			for (RDFCubeFragment fragment : lattice) {
+				if (!fragment.isMetadata() && !result.contains(fragment)) {
+					Pair<RDFCubeFragment, Float> candidate = new ImmutablePair<>(fragment, getBenefit(fragment));
+					if (best == null || comparator.compare(candidate, best) < 0) {
+						best = candidate;
+					}
+				}
+			}
+			if (best == null || best.getRight() <= 0.0f)
+				break;
+
+			RDFCubeFragment bestFragment = best.getLeft();
+			long additionalCost = bestFragment.size();
+			Set<RDFCubeFragment> metaFragments = new LinkedHashSet<>();
+			for (RDFCubeFragment metaFragment : lattice.getMetadataFragments(bestFragment)) {
+				if (!result.contains(metaFragment)) {
+					additionalCost += metaFragment.size();
+					metaFragments.add(metaFragment);
+				}
+			}
+			if (cost + additionalCost > budget)
+				break;
+
+			result.add(bestFragment);
+			result.addAll(metaFragments);
+			cost += additionalCost;
+			// Metadata fragments can also answer queries
+			markSelected(bestFragment);
+			for (RDFCubeFragment metaFragment : metaFragments) {
+				markSelected(metaFragment);
+			}
+		}
+
+		expectedCost = 0.0;
+		for (int group = 0; group < groupCosts.length; ++group) {
+			expectedCost += (double)groupFrequencies.get(group) * groupCosts[group];
+		}
+		if (workload.getTotalFrequency() > 0) {
+			expectedCost /= workload.getTotalFrequency();
+		}
+		closure = null;
+
+		return result;
+	}
+
+	/**
+	 * Groups the patterns of the workload by covering fragments and computes their initial costs.
+	 * @param lattice
+	 */
+	private void initialize(FragmentLattice lattice) {
+		closure = lattice.getClosureIndex();
+		cubeSize = lattice.getRoot().size();
+		answeringFragment = new int[closure.size()];
+		answeringSize = new long[closure.size()];
+		affectedGroups = new ArrayList<>(closure.size());
+		for (int id = 0; id < closure.size(); ++id) {
+			answeringFragment[id] = -1;
+			answeringSize[id] = cubeSize;
+			affectedGroups.add(new ArrayList<Integer>());
+		}
+
+		Map<RDFCubeFragment, Integer> groups = new LinkedHashMap<>();
+		groupCovers = new ArrayList<>();
+		groupParts = new ArrayList<>();
+		groupFrequencies = new ArrayList<>();
+		for (Map.Entry<Quadruple<String, String, String, String>, Long> entry : workload.getFrequencies().entrySet()) {
+			RDFCubeFragment cover = lattice.getCoveringFragment(entry.getKey());
+			// Patterns without a covering fragment have no answers and cost nothing
+			if (cover == null)
+				continue;
+
+			Integer group = groups.get(cover);
+			if (group == null) {
+				group = groupCovers.size();
+				groups.put(cover, group);
+				int coverId = closure.getId(cover);
+				Set<RDFCubeFragment> parts = lattice.getParts(cover);
+				int[] partIds = new int[parts.size()];
+				int i = 0;
+				for (RDFCubeFragment part : parts) {
+					partIds[i++] = closure.getId(part);
+				}
+				groupCovers.add(coverId);
+				groupParts.add(partIds);
+				groupFrequencies.add(0L);
+				// The fragments containing the covering fragment or any of its parts may reduce the cost of the group
+				BitSet affecting = new BitSet();
+				affecting.set(coverId);
+				affecting.or(closure.getAncestorIds(coverId));
+				for (int partId : partIds) {
+					affecting.set(partId);
+					affecting.or(closure.getAncestorIds(partId));
+				}
+				for (int id = affecting.nextSetBit(0); id >= 0; id = affecting.nextSetBit(id + 1)) {
+					affectedGroups.get(id).add(group);
+				}
+			}
+			groupFrequencies.set(group, groupFrequencies.get(group) + entry.getValue());
+		}
+
+		groupCosts = new long[groupCovers.size()];
+		for (int group = 0; group < groupCosts.length; ++group) {
+			groupCosts[group] = getGroupCost(group, -1);
+		}
+	}
+
+	/**
+	 * Returns the number of triples scanned to answer the patterns of a group.
+	 * @param group
+	 * @param candidate Id of a fragment assumed to be selected too, or -1
+	 * @return
+	 */
+	private long getGroupCost(int group, int candidate) {
+		long candidateSize = candidate < 0 ? cubeSize : closure.getFragment(candidate).size();
+		long cost = getAnsweringSize(groupCovers.get(group), candidate, candidateSize);
+		int[] parts = groupParts.get(group);
+		if (parts.length == 0)
+			return cost;
+
+		BitSet scannedFragments = new BitSet();
+		long partsCost = 0;
+		for (int part : parts) {
+			int answering = getAnsweringFragment(part, candidate, candidateSize);
+			// One of the parts must be read from the whole cube, which contains the others
+			if (answering < 0)
+				return cost;
+
+			if (!scannedFragments.get(answering)) {
+				scannedFragments.set(answering);
+				partsCost += answering == candidate ? candidateSize : answeringSize[part];
+			}
+		}
+
+		return Math.min(cost, partsCost);
+	}
+
+	/**
+	 * Returns the smallest selected fragment that contains the given fragment, assuming that
+	 * the candidate is selected too, or -1 for the whole cube.
+	 */
+	private int getAnsweringFragment(int fragment, int candidate, long candidateSize) {
+		if (candidate >= 0 && candidateSize < answeringSize[fragment]
+				&& (fragment == candidate || closure.getAncestorIds(fragment).get(candidate)))
+			return candidate;
+
+		return answeringFragment[fragment];
+	}
+
+	private long getAnsweringSize(int fragment, int candidate, long candidateSize) {
+		int answering = getAnsweringFragment(fragment, candidate, candidateSize);
+		if (answering < 0)
+			return cubeSize;
+
+		return answering == candidate ? candidateSize : answeringSize[fragment];
+	}
+
+	private float getBenefit(RDFCubeFragment fragment) {
+		int id = closure.getId(fragment);
+		double savings = 0.0;
+		for (int group : affectedGroups.get(id)) {
+			savings += (double)groupFrequencies.get(group) * (groupCosts[group] - getGroupCost(group, id));
+		}
+
+		return (float)(savings / Math.max(1, fragment.size()));
+	}
+
+	private void markSelected(RDFCubeFragment fragment) {
+		int id = closure.getId(fragment);
+		long size = fragment.size();
+		if (size < answeringSize[id]) {
+			answeringFragment[id] = id;
+			answeringSize[id] = size;
+		}
+		BitSet descendants = closure.getDescendantIds(id);
+		for (int descendant = descendants.nextSetBit(0); descendant >= 0;
+				descendant = descendants.nextSetBit(descendant + 1)) {
+			if (size < answeringSize[descendant]) {
+				answeringFragment[descendant] = id;
+				answeringSize[descendant] = size;
+			}
+		}
+
+		for (int group : affectedGroups.get(id)) {
+			groupCosts[group] = getGroupCost(group, -1);
+		}
+	}
+
+	/**
+	 * Expected number of triples scanned per query of the workload with the last selection.
+	 * @return
+	 */
+	public double getExpectedCost() {
+		return expectedCost;
+	}
+
+}
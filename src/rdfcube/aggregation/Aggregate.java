@@ -0,0 +1,67 @@
+package rdfcube.aggregation;
+
+/**
+ * COUNT, SUM, MIN and MAX of the values of a measure in a cell of a cuboid. All of them
+ * are distributive, so the aggregate of a coarser cell is the merge of the aggregates
+ * of the finer cells it contains.
+ *
+ */
+public class Aggregate {
+
+	private long count;
+
+	private double sum;
+
+	private double min;
+
+	private double max;
+
+	public Aggregate() {
+		count = 0;
+		sum = 0.0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	public void add(double value) {
+		++count;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public void merge(Aggregate other) {
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return The minimum value or NaN if the aggregate is empty.
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * @return The maximum value or NaN if the aggregate is empty.
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	@Override
+	public String toString() {
+		return "[count=" + count + ", sum=" + sum + ", min=" + getMin() + ", max=" + getMax() + "]";
+	}
+
+}
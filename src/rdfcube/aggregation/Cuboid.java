@@ -0,0 +1,119 @@
+package rdfcube.aggregation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates of the measures of a cube grouped by a combination of dimension levels.
+ * Every cell is identified by the members of the levels, in the order of {@link #getLevels()};
+ * a null member groups the observations that do not roll up to that level.
+ *
+ */
+public class Cuboid {
+
+	private List<String> levels;
+
+	private List<String> measures;
+
+	private Map<List<String>, Aggregate[]> cells;
+
+	/**
+	 * Measure values that were not aggregated because they are not numbers
+	 */
+	private long ignoredValues;
+
+	Cuboid(List<String> levels, List<String> measures) {
+		this.levels = Collections.unmodifiableList(levels);
+		this.measures = Collections.unmodifiableList(measures);
+		cells = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Returns the aggregates of the cell, creating it if it does not exist.
+	 */
+	Aggregate[] getOrCreateCell(List<String> members) {
+		Aggregate[] cell = cells.get(members);
+		if (cell == null) {
+			cell = new Aggregate[measures.size()];
+			for (int i = 0; i < cell.length; ++i) {
+				cell[i] = new Aggregate();
+			}
+			cells.put(members, cell);
+		}
+
+		return cell;
+	}
+
+	void setIgnoredValues(long ignoredValues) {
+		this.ignoredValues = ignoredValues;
+	}
+
+	/**
+	 * Number of measure values left out of the aggregates because they are not numbers.
+	 * @return
+	 */
+	public long getIgnoredValues() {
+		return ignoredValues;
+	}
+
+	public List<String> getLevels() {
+		return levels;
+	}
+
+	public List<String> getMeasures() {
+		return measures;
+	}
+
+	/**
+	 * Returns the aggregates of every cell, one per measure in the order of {@link #getMeasures()}.
+	 * @return
+	 */
+	public Map<List<String>, Aggregate[]> getCells() {
+		return Collections.unmodifiableMap(cells);
+	}
+
+	/**
+	 * Returns the aggregate of a measure in a cell or null if the cell is empty.
+	 * @param members
+	 * @param measure
+	 * @return
+	 */
+	public Aggregate getAggregate(List<String> members, String measure) {
+		Aggregate[] cell = cells.get(members);
+		int index = measures.indexOf(measure);
+		if (cell == null || index < 0)
+			return null;
+
+		return cell[index];
+	}
+
+	/**
+	 * Number of cells.
+	 * @return
+	 */
+	public int size() {
+		return cells.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(levels + " x " + measures);
+		if (ignoredValues > 0) {
+			builder.append(" (" + ignoredValues + " non-numeric values ignored)");
+		}
+		builder.append("\n");
+		for (Map.Entry<List<String>, Aggregate[]> cell : cells.entrySet()) {
+			builder.append(cell.getKey());
+			for (Aggregate aggregate : cell.getValue()) {
+				builder.append("\t" + aggregate);
+			}
+			builder.append("\n");
+		}
+
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,380 @@
+package rdfcube.aggregation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rdfcube.DimensionHierarchy;
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+import rdfcube.types.Quadruple;
+
+/**
+ * Computes COUNT, SUM, MIN and MAX of the measures of a cube grouped by any combination
+ * of dimension levels. The observations are the subjects of the measure quads; an observation
+ * belongs to the member of the finest level of a dimension it is linked to, and a member of
+ * a level rolls up to the member of the next level it is linked to through the relation of
+ * that level (the skos:broader chains of the structure, instantiated in the data).
+ * <p>
+ * The first request reads the observations once and caches the base cuboid, which groups by
+ * the finest level of every dimension. Every other cuboid is derived from the smallest cached
+ * cuboid whose levels are equal to or finer than the requested ones, by rolling up its cells,
+ * and is cached as well. Cuboids are cached per set of provenance identifiers, as a restriction
+ * on the provenance yields a different cube.
+ *
+ */
+public class RollupAggregationEngine {
+
+	private RDFCubeDataSource data;
+
+	private RDFCubeStructure structure;
+
+	private List<String> measures;
+
+	/**
+	 * Dimensions in a fixed order, which is also the order of the levels in the cuboids
+	 */
+	private List<DimensionHierarchy> dimensions;
+
+	/**
+	 * Dimension and position of every level in its dimension
+	 */
+	private Map<String, int[]> levelPositions;
+
+	/**
+	 * Cached cuboids for every provenance restriction. The key null stands for the whole cube.
+	 */
+	private Map<Set<String>, Scope> scopes;
+
+	/**
+	 * Value of a measure for an observation
+	 */
+	private static class MeasureValue {
+
+		int measure;
+
+		double value;
+
+		MeasureValue(int measure, double value) {
+			this.measure = measure;
+			this.value = value;
+		}
+
+	}
+
+	/**
+	 * Cuboids and roll-up mappings computed for one provenance restriction
+	 */
+	private class Scope {
+
+		Set<String> provenanceIds;
+
+		Map<List<String>, Cuboid> cuboids = new LinkedHashMap<>();
+
+		/**
+		 * For every level relation, the member each member of the previous level rolls up to
+		 */
+		Map<String, Map<String, String>> rollups = new HashMap<>();
+
+		Scope(Set<String> provenanceIds) {
+			this.provenanceIds = provenanceIds;
+		}
+
+		boolean accepts(Quadruple<String, String, String, String> quad) {
+			return provenanceIds == null || provenanceIds.contains(quad.getFourth());
+		}
+
+		Map<String, String> getRollup(String level) {
+			Map<String, String> rollup = rollups.get(level);
+			if (rollup == null) {
+				rollup = new HashMap<>();
+				for (Quadruple<String, String, String, String> quad : data.match(new Quadruple<String, String, String, String>(null, level, null, null))) {
+					if (accepts(quad) && !rollup.containsKey(quad.getFirst())) {
+						rollup.put(quad.getFirst(), quad.getThird());
+					}
+				}
+				rollups.put(level, rollup);
+			}
+
+			return rollup;
+		}
+
+	}
+
+	public RollupAggregationEngine(RDFCubeDataSource data, RDFCubeStructure structure) {
+		this.data = data;
+		this.structure = structure;
+		measures = new ArrayList<>(structure.getMeasures());
+		List<String> names = new ArrayList<>(structure.getDimensions().keySet());
+		Collections.sort(names);
+		dimensions = new ArrayList<>();
+		levelPositions = new HashMap<>();
+		for (String name : names) {
+			DimensionHierarchy dimension = structure.getDimensions().get(name);
+			List<String> levels = dimension.getLevels();
+			for (int k = 0; k < levels.size(); ++k) {
+				levelPositions.put(levels.get(k), new int[] {dimensions.size(), k});
+			}
+			dimensions.add(dimension);
+		}
+		scopes = new HashMap<>();
+	}
+
+	/**
+	 * Aggregates the measures of the whole cube.
+	 * @param levels At most one level per dimension
+	 * @return
+	 */
+	public Cuboid aggregate(Collection<String> levels) {
+		return aggregate(levels, null);
+	}
+
+	/**
+	 * Aggregates the measures of the quads with the given provenance identifiers.
+	 * @param levels At most one level per dimension
+	 * @param provenanceIds Provenance identifiers of the quads to consider, null for all of them
+	 * @return
+	 */
+	public Cuboid aggregate(Collection<String> levels, Set<String> provenanceIds) {
+		Set<String> key = provenanceIds == null ? null : Collections.unmodifiableSet(new HashSet<>(provenanceIds));
+		Scope scope = scopes.get(key);
+		if (scope == null) {
+			scope = new Scope(key);
+			scopes.put(key, scope);
+		}
+
+		List<String> sortedLevels = sortLevels(levels);
+		Cuboid cuboid = scope.cuboids.get(sortedLevels);
+		if (cuboid != null)
+			return cuboid;
+
+		Cuboid source = null;
+		for (Cuboid candidate : scope.cuboids.values()) {
+			if (isDerivable(sortedLevels, candidate.getLevels()) && (source == null || candidate.size() < source.size())) {
+				source = candidate;
+			}
+		}
+		if (source == null) {
+			source = computeBaseCuboid(scope);
+			scope.cuboids.put(source.getLevels(), source);
+			if (source.getLevels().equals(sortedLevels))
+				return source;
+		}
+
+		cuboid = rollup(source, sortedLevels, scope);
+		scope.cuboids.put(sortedLevels, cuboid);
+		return cuboid;
+	}
+
+	/**
+	 * Puts the levels in the order of their dimensions.
+	 */
+	private List<String> sortLevels(Collection<String> levels) {
+		String[] sorted = new String[dimensions.size()];
+		for (String level : levels) {
+			int[] position = levelPositions.get(level);
+			if (position == null)
+				throw new IllegalArgumentException(level + " is not a level of any dimension");
+
+			if (sorted[position[0]] != null && !sorted[position[0]].equals(level))
+				throw new IllegalArgumentException(level + " and " + sorted[position[0]] + " belong to the same dimension");
+
+			sorted[position[0]] = level;
+		}
+
+		List<String> result = new ArrayList<>();
+		for (String level : sorted) {
+			if (level != null) {
+				result.add(level);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * A cuboid can be derived from another if the latter has, for every level of the
+	 * former, the same level or a finer level of the same dimension.
+	 */
+	private boolean isDerivable(List<String> levels, List<String> sourceLevels) {
+		for (String level : levels) {
+			int[] position = levelPositions.get(level);
+			boolean found = false;
+			for (String sourceLevel : sourceLevels) {
+				int[] sourcePosition = levelPositions.get(sourceLevel);
+				if (sourcePosition[0] == position[0] && sourcePosition[1] <= position[1]) {
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Groups the observations by the finest level of every dimension. It is the only
+	 * computation that reads the measure quads.
+	 */
+	private Cuboid computeBaseCuboid(Scope scope) {
+		List<String> baseLevels = new ArrayList<>();
+		for (DimensionHierarchy dimension : dimensions) {
+			baseLevels.add(dimension.getLevels().get(0));
+		}
+
+		// Values of every measure for every observation
+		Map<String, List<MeasureValue>> observations = new LinkedHashMap<>();
+		long ignoredValues = 0;
+		for (int i = 0; i < measures.size(); ++i) {
+			for (Quadruple<String, String, String, String> quad : data.match(new Quadruple<String, String, String, String>(null, measures.get(i), null, null))) {
+				if (!scope.accepts(quad))
+					continue;
+
+				double value;
+				try {
+					if (quad.getThird() == null)
+						throw new NumberFormatException("Empty value");
+
+					value = Double.parseDouble(quad.getThird());
+				} catch (NumberFormatException e) {
+					++ignoredValues;
+					continue;
+				}
+				List<MeasureValue> values = observations.get(quad.getFirst());
+				if (values == null) {
+					values = new ArrayList<>();
+					observations.put(quad.getFirst(), values);
+				}
+				values.add(new MeasureValue(i, value));
+			}
+		}
+
+		// Member of the finest level of every dimension for every observation
+		List<Map<String, String>> baseMembers = new ArrayList<>();
+		for (String level : baseLevels) {
+			baseMembers.add(scope.getRollup(level));
+		}
+
+		Cuboid cuboid = new Cuboid(baseLevels, measures);
+		cuboid.setIgnoredValues(ignoredValues);
+		for (Map.Entry<String, List<MeasureValue>> observation : observations.entrySet()) {
+			String[] members = new String[baseLevels.size()];
+			for (int k = 0; k < members.length; ++k) {
+				members[k] = baseMembers.get(k).get(observation.getKey());
+			}
+			Aggregate[] cell = cuboid.getOrCreateCell(Arrays.asList(members));
+			for (MeasureValue value : observation.getValue()) {
+				cell[value.measure].add(value.value);
+			}
+		}
+
+		return cuboid;
+	}
+
+	/**
+	 * Derives a cuboid by rolling up the cells of a finer one.
+	 */
+	private Cuboid rollup(Cuboid source, List<String> levels, Scope scope) {
+		List<String> sourceLevels = source.getLevels();
+		// Position in the source of the level each target level is rolled up from
+		int[] sourceIndexes = new int[levels.size()];
+		for (int k = 0; k < levels.size(); ++k) {
+			int dimension = levelPositions.get(levels.get(k))[0];
+			for (int j = 0; j < sourceLevels.size(); ++j) {
+				if (levelPositions.get(sourceLevels.get(j))[0] == dimension) {
+					sourceIndexes[k] = j;
+				}
+			}
+		}
+
+		Cuboid cuboid = new Cuboid(new ArrayList<>(levels), measures);
+		cuboid.setIgnoredValues(source.getIgnoredValues());
+		Map<String, String> memberCache = new HashMap<>();
+		for (Map.Entry<List<String>, Aggregate[]> sourceCell : source.getCells().entrySet()) {
+			String[] members = new String[levels.size()];
+			for (int k = 0; k < members.length; ++k) {
+				members[k] = rollupMember(sourceCell.getKey().get(sourceIndexes[k]), sourceLevels.get(sourceIndexes[k]),
+						levels.get(k), scope, memberCache);
+			}
+			Aggregate[] cell = cuboid.getOrCreateCell(Arrays.asList(members));
+			for (int i = 0; i < cell.length; ++i) {
+				cell[i].merge(sourceCell.getValue()[i]);
+			}
+		}
+
+		return cuboid;
+	}
+
+	/**
+	 * Follows the roll-up chain from a member of a level to a coarser level of the same dimension.
+	 */
+	private String rollupMember(String member, String fromLevel, String toLevel, Scope scope, Map<String, String> memberCache) {
+		if (member == null || fromLevel.equals(toLevel))
+			return member;
+
+		String cacheKey = toLevel + '\t' + member;
+		if (memberCache.containsKey(cacheKey))
+			return memberCache.get(cacheKey);
+
+		int[] from = levelPositions.get(fromLevel);
+		int[] to = levelPositions.get(toLevel);
+		List<String> dimensionLevels = dimensions.get(from[0]).getLevels();
+		String result = member;
+		for (int k = from[1] + 1; k <= to[1] && result != null; ++k) {
+			result = scope.getRollup(dimensionLevels.get(k)).get(result);
+		}
+		memberCache.put(cacheKey, result);
+
+		return result;
+	}
+
+	/**
+	 * Returns the levels of the cuboids cached for the given provenance restriction.
+	 * @param provenanceIds null for the whole cube
+	 * @return
+	 */
+	public Set<List<String>> getCachedCuboids(Set<String> provenanceIds) {
+		Scope scope = scopes.get(provenanceIds == null ? null : new HashSet<>(provenanceIds));
+		if (scope == null)
+			return Collections.emptySet();
+
+		return Collections.unmodifiableSet(scope.cuboids.keySet());
+	}
+
+	/**
+	 * Drops the cached cuboids, e.g., after the data has changed.
+	 */
+	public void clearCache() {
+		scopes.clear();
+	}
+
+	public RDFCubeStructure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * Usage: cube-file schema-file level1,level2,... [provenance-id1,provenance-id2,...]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		RDFCubeDataSource data = InMemoryRDFCubeDataSource.build(args[0]);
+		RDFCubeStructure structure = RDFCubeStructure.build(args[1]);
+		RollupAggregationEngine engine = new RollupAggregationEngine(data, structure);
+		List<String> levels = args[2].isEmpty() ? Collections.<String>emptyList() : Arrays.asList(args[2].split(","));
+		Set<String> provenanceIds = args.length > 3 ? new HashSet<>(Arrays.asList(args[3].split(","))) : null;
+		System.out.println(engine.aggregate(levels, provenanceIds));
+	}
+
+}
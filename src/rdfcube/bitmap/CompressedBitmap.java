@@ -0,0 +1,644 @@
+package rdfcube.bitmap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Compressed set of non-negative integers in the style of Roaring bitmaps (Chambi et al.).
+ * The integers are split in chunks by their 16 high bits. A chunk with up to 4096 values is
+ * stored as a sorted array of their 16 low bits and a denser chunk as a bitmap of 2^16 bits
+ * (8 KB), so a set never takes more than 2 bytes per value nor more than 1 bit per integer of
+ * the chunks it touches. Intersections, unions and differences are computed chunk by chunk
+ * without decompressing the arrays; their results are new sets.
+ *
+ */
+public class CompressedBitmap {
+
+	/**
+	 * Largest number of values stored in an array container; beyond it a bitmap is smaller
+	 */
+	static final int maxArrayCardinality = 4096;
+
+	private static final int chunkSize = 1 << 16;
+
+	/**
+	 * High 16 bits of the chunks, in increasing order
+	 */
+	private int[] keys;
+
+	private Container[] containers;
+
+	private int nContainers;
+
+	public CompressedBitmap() {
+		keys = new int[4];
+		containers = new Container[4];
+		nContainers = 0;
+	}
+
+	/**
+	 * Returns the set of integers in [from, to).
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static CompressedBitmap range(int from, int to) {
+		if (from < 0)
+			throw new IllegalArgumentException("Negative values are not supported: " + from);
+
+		CompressedBitmap result = new CompressedBitmap();
+		if (to <= from)
+			return result;
+
+		for (long chunkStart = (long)(from >>> 16) << 16; chunkStart < to; chunkStart += chunkSize) {
+			int low = (int)Math.max(from - chunkStart, 0);
+			int high = (int)Math.min(to - chunkStart, chunkSize);
+			Container container;
+			if (high - low <= maxArrayCardinality) {
+				ArrayContainer array = new ArrayContainer(high - low);
+				for (int value = low; value < high; ++value) {
+					array.values[array.cardinality++] = (char)value;
+				}
+				container = array;
+			} else {
+				BitmapContainer bitmap = new BitmapContainer();
+				bitmap.setRange(low, high);
+				container = bitmap;
+			}
+			result.append((int)(chunkStart >>> 16), container);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the union of the given sets.
+	 * @param bitmaps
+	 * @return
+	 */
+	public static CompressedBitmap or(Collection<CompressedBitmap> bitmaps) {
+		CompressedBitmap result = new CompressedBitmap();
+		for (CompressedBitmap bitmap : bitmaps) {
+			result = result.or(bitmap);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the index of the chunk with the given key, or (-(insertion point) - 1).
+	 */
+	private int findChunk(int key) {
+		// Values are usually added in increasing order
+		if (nContainers > 0 && keys[nContainers - 1] == key)
+			return nContainers - 1;
+
+		return Arrays.binarySearch(keys, 0, nContainers, key);
+	}
+
+	private void insert(int index, int key, Container container) {
+		if (nContainers == keys.length) {
+			keys = Arrays.copyOf(keys, nContainers * 2);
+			containers = Arrays.copyOf(containers, nContainers * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, nContainers - index);
+		System.arraycopy(containers, index, containers, index + 1, nContainers - index);
+		keys[index] = key;
+		containers[index] = container;
+		++nContainers;
+	}
+
+	private void append(int key, Container container) {
+		insert(nContainers, key, container);
+	}
+
+	public void add(int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Negative values are not supported: " + value);
+
+		int key = value >>> 16;
+		int index = findChunk(key);
+		if (index < 0) {
+			index = -index - 1;
+			insert(index, key, new ArrayContainer(4));
+		}
+		containers[index] = containers[index].add((char)value);
+	}
+
+	public boolean contains(int value) {
+		if (value < 0)
+			return false;
+
+		int index = findChunk(value >>> 16);
+		return index >= 0 && containers[index].contains((char)value);
+	}
+
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < nContainers; ++i) {
+			cardinality += containers[i].getCardinality();
+		}
+
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return nContainers == 0;
+	}
+
+	/**
+	 * Returns the intersection of this set and the given one.
+	 * @param other
+	 * @return
+	 */
+	public CompressedBitmap and(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < nContainers && j < other.nContainers) {
+			if (keys[i] < other.keys[j]) {
+				++i;
+			} else if (keys[i] > other.keys[j]) {
+				++j;
+			} else {
+				Container container = containers[i].and(other.containers[j]);
+				if (container.getCardinality() > 0) {
+					result.append(keys[i], container);
+				}
+				++i;
+				++j;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the union of this set and the given one.
+	 * @param other
+	 * @return
+	 */
+	public CompressedBitmap or(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < nContainers || j < other.nContainers) {
+			if (j == other.nContainers || (i < nContainers && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				++i;
+			} else if (i == nContainers || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				++j;
+			} else {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				++i;
+				++j;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the values of this set that are not in the given one.
+	 * @param other
+	 * @return
+	 */
+	public CompressedBitmap andNot(CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int j = 0;
+		for (int i = 0; i < nContainers; ++i) {
+			while (j < other.nContainers && other.keys[j] < keys[i]) {
+				++j;
+			}
+			if (j < other.nContainers && other.keys[j] == keys[i]) {
+				Container container = containers[i].andNot(other.containers[j]);
+				if (container.getCardinality() > 0) {
+					result.append(keys[i], container);
+				}
+			} else {
+				result.append(keys[i], containers[i].copy());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the values in increasing order.
+	 * @return
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+
+			int index = 0;
+
+			PrimitiveIterator.OfInt lows = nContainers > 0 ? containers[0].iterator() : null;
+
+			@Override
+			public boolean hasNext() {
+				while (lows != null && !lows.hasNext()) {
+					++index;
+					lows = index < nContainers ? containers[index].iterator() : null;
+				}
+
+				return lows != null;
+			}
+
+			@Override
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				return (keys[index] << 16) | lows.nextInt();
+			}
+
+		};
+	}
+
+	/**
+	 * Number of bytes allocated by the set (approximately).
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		long usage = 16 + 4L * keys.length + 4L * containers.length;
+		for (int i = 0; i < nContainers; ++i) {
+			usage += containers[i].getMemoryUsage();
+		}
+
+		return usage;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getCardinality() + " values, " + nContainers + " chunks, " + getMemoryUsage() + " bytes]";
+	}
+
+	/**
+	 * Set of the 16 low bits of the values of a chunk. Operations that change the representation
+	 * return a new container.
+	 */
+	private static abstract class Container {
+
+		abstract Container add(char value);
+
+		abstract boolean contains(char value);
+
+		abstract int getCardinality();
+
+		abstract Container and(Container other);
+
+		abstract Container or(Container other);
+
+		abstract Container andNot(Container other);
+
+		abstract Container copy();
+
+		abstract PrimitiveIterator.OfInt iterator();
+
+		abstract long getMemoryUsage();
+
+	}
+
+	/**
+	 * Sorted array of values. Chars are used as unsigned 16-bit integers.
+	 */
+	private static class ArrayContainer extends Container {
+
+		char[] values;
+
+		int cardinality;
+
+		ArrayContainer(int capacity) {
+			values = new char[capacity];
+			cardinality = 0;
+		}
+
+		@Override
+		Container add(char value) {
+			int index = cardinality > 0 && values[cardinality - 1] < value ?
+					-cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0)
+				return this;
+
+			if (cardinality == maxArrayCardinality)
+				return toBitmap().add(value);
+
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(Math.max(values.length * 2, 4), maxArrayCardinality));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			++cardinality;
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container and(Container other) {
+			ArrayContainer result = new ArrayContainer(cardinality);
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer)other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < array.cardinality) {
+					if (values[i] < array.values[j]) {
+						++i;
+					} else if (values[i] > array.values[j]) {
+						++j;
+					} else {
+						result.values[result.cardinality++] = values[i];
+						++i;
+						++j;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; ++i) {
+					if (other.contains(values[i])) {
+						result.values[result.cardinality++] = values[i];
+					}
+				}
+			}
+
+			return result;
+		}
+
+		@Override
+		Container or(Container other) {
+			if (!(other instanceof ArrayContainer))
+				return other.or(this);
+
+			ArrayContainer array = (ArrayContainer)other;
+			char[] union = new char[cardinality + array.cardinality];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < array.cardinality) {
+				if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+					union[n++] = values[i++];
+				} else if (i == cardinality || values[i] > array.values[j]) {
+					union[n++] = array.values[j++];
+				} else {
+					union[n++] = values[i++];
+					++j;
+				}
+			}
+
+			ArrayContainer result = new ArrayContainer(0);
+			result.values = union;
+			result.cardinality = n;
+			return n > maxArrayCardinality ? result.toBitmap() : result;
+		}
+
+		@Override
+		Container andNot(Container other) {
+			ArrayContainer result = new ArrayContainer(cardinality);
+			if (other instanceof ArrayContainer) {
+				ArrayContainer array = (ArrayContainer)other;
+				int j = 0;
+				for (int i = 0; i < cardinality; ++i) {
+					while (j < array.cardinality && array.values[j] < values[i]) {
+						++j;
+					}
+					if (j == array.cardinality || array.values[j] != values[i]) {
+						result.values[result.cardinality++] = values[i];
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; ++i) {
+					if (!other.contains(values[i])) {
+						result.values[result.cardinality++] = values[i];
+					}
+				}
+			}
+
+			return result;
+		}
+
+		@Override
+		Container copy() {
+			ArrayContainer result = new ArrayContainer(0);
+			result.values = Arrays.copyOf(values, cardinality);
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < cardinality; ++i) {
+				bitmap.add(values[i]);
+			}
+
+			return bitmap;
+		}
+
+		@Override
+		PrimitiveIterator.OfInt iterator() {
+			return new PrimitiveIterator.OfInt() {
+
+				int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < cardinality;
+				}
+
+				@Override
+				public int nextInt() {
+					if (next >= cardinality)
+						throw new NoSuchElementException();
+
+					return values[next++];
+				}
+
+			};
+		}
+
+		@Override
+		long getMemoryUsage() {
+			return 32 + 2L * values.length;
+		}
+
+	}
+
+	/**
+	 * Bitmap of the 2^16 possible values of a chunk.
+	 */
+	private static class BitmapContainer extends Container {
+
+		long[] words = new long[chunkSize / 64];
+
+		int cardinality = 0;
+
+		@Override
+		Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				++cardinality;
+			}
+
+			return this;
+		}
+
+		/**
+		 * Adds the values in [from, to).
+		 */
+		void setRange(int from, int to) {
+			int value = from;
+			while (value < to) {
+				if ((value & 63) == 0 && value + 64 <= to) {
+					cardinality += 64 - Long.bitCount(words[value >>> 6]);
+					words[value >>> 6] = -1L;
+					value += 64;
+				} else {
+					add((char)value);
+					++value;
+				}
+			}
+		}
+
+		@Override
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (!(other instanceof BitmapContainer))
+				return other.and(this);
+
+			BitmapContainer bitmap = (BitmapContainer)other;
+			BitmapContainer result = new BitmapContainer();
+			for (int i = 0; i < words.length; ++i) {
+				result.words[i] = words[i] & bitmap.words[i];
+				result.cardinality += Long.bitCount(result.words[i]);
+			}
+
+			return result.compact();
+		}
+
+		@Override
+		Container or(Container other) {
+			BitmapContainer result = (BitmapContainer)copy();
+			if (other instanceof BitmapContainer) {
+				BitmapContainer bitmap = (BitmapContainer)other;
+				result.cardinality = 0;
+				for (int i = 0; i < words.length; ++i) {
+					result.words[i] |= bitmap.words[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer)other;
+				for (int i = 0; i < array.cardinality; ++i) {
+					result.add(array.values[i]);
+				}
+			}
+
+			return result;
+		}
+
+		@Override
+		Container andNot(Container other) {
+			BitmapContainer result = (BitmapContainer)copy();
+			if (other instanceof BitmapContainer) {
+				BitmapContainer bitmap = (BitmapContainer)other;
+				result.cardinality = 0;
+				for (int i = 0; i < words.length; ++i) {
+					result.words[i] &= ~bitmap.words[i];
+					result.cardinality += Long.bitCount(result.words[i]);
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer)other;
+				for (int i = 0; i < array.cardinality; ++i) {
+					char value = array.values[i];
+					if (result.contains(value)) {
+						result.words[value >>> 6] &= ~(1L << value);
+						--result.cardinality;
+					}
+				}
+			}
+
+			return result.compact();
+		}
+
+		@Override
+		Container copy() {
+			BitmapContainer result = new BitmapContainer();
+			result.words = Arrays.copyOf(words, words.length);
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		/**
+		 * Returns an array container if it is smaller than the bitmap.
+		 */
+		private Container compact() {
+			if (cardinality > maxArrayCardinality)
+				return this;
+
+			ArrayContainer array = new ArrayContainer(cardinality);
+			PrimitiveIterator.OfInt values = iterator();
+			while (values.hasNext()) {
+				array.values[array.cardinality++] = (char)values.nextInt();
+			}
+
+			return array;
+		}
+
+		@Override
+		PrimitiveIterator.OfInt iterator() {
+			return new PrimitiveIterator.OfInt() {
+
+				int wordIndex = 0;
+
+				long word = words[0];
+
+				@Override
+				public boolean hasNext() {
+					while (word == 0 && wordIndex < words.length - 1) {
+						word = words[++wordIndex];
+					}
+
+					return word != 0;
+				}
+
+				@Override
+				public int nextInt() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+
+					int value = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+					// Clear the lowest set bit
+					word &= word - 1;
+					return value;
+				}
+
+			};
+		}
+
+		@Override
+		long getMemoryUsage() {
+			return 24 + 8L * words.length;
+		}
+
+	}
+
+}
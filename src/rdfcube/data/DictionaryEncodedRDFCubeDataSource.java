@@ -0,0 +1,518 @@
+package rdfcube.data;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import com.univocity.parsers.tsv.TsvParser;
+import com.univocity.parsers.tsv.TsvParserSettings;
+
+import rdfcube.bitmap.CompressedBitmap;
+import rdfcube.metrics.PipelineMetrics;
+import rdfcube.types.Quadruple;
+
+/**
+ * Compact in-memory RDF cube. Terms are replaced by integer identifiers from a
+ * {@link TermDictionary} and quads are stored column-wise in four primitive arrays,
+ * so a quad costs 16 bytes plus its share in the duplicate-detection table
+ * (instead of a Quadruple object, four references and several hash map entries).
+ * Duplicate quads are discarded, as in {@link InMemoryRDFCubeDataSource}.
+ *
+ */
+public class DictionaryEncodedRDFCubeDataSource implements RDFCubeDataSource {
+
+	private static final int initialCapacity = 1024;
+
+	/**
+	 * Largest power of two that can be the length of an array
+	 */
+	private static final int maxTableLength = 1 << 30;
+
+	private TermDictionary dictionary;
+
+	// Quad columns
+	private int[] subjects;
+
+	private int[] relations;
+
+	private int[] objects;
+
+	private int[] provenances;
+
+	/**
+	 * Number of quads stored in the columns
+	 */
+	private int size;
+
+	/**
+	 * Open-addressing hash table used to detect duplicate quads. Every slot
+	 * contains the position of a quad plus one, or 0 if the slot is empty.
+	 */
+	private int[] positionsTable;
+
+	/**
+	 * SPO, POS, OSP and GSPO permutation indexes, built on the first pattern lookup
+	 * and dropped when quads are added
+	 */
+	private PermutationIndex[] indexes;
+
+	/**
+	 * Bitmaps of the positions of every provenance identifier, built on demand
+	 * and dropped when quads are added
+	 */
+	private ProvenanceIndex provenanceIndex;
+
+	DictionaryEncodedRDFCubeDataSource() {
+		dictionary = new TermDictionary();
+		subjects = new int[initialCapacity];
+		relations = new int[initialCapacity];
+		objects = new int[initialCapacity];
+		provenances = new int[initialCapacity];
+		positionsTable = new int[initialCapacity * 2];
+		size = 0;
+	}
+
+	/**
+	 * It builds a dictionary-encoded source from a file path. The method assumes the file is given as
+	 * quadruples in TSV format: subject relation object provenance-id
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public static DictionaryEncodedRDFCubeDataSource build(String filePath) throws IOException {
+		DictionaryEncodedRDFCubeDataSource source = new DictionaryEncodedRDFCubeDataSource();
+
+		TsvParserSettings settings = new TsvParserSettings();
+		settings.getFormat().setLineSeparator("\n");
+		TsvParser parser = new TsvParser(settings);
+
+		parser.beginParsing(new BufferedReader(new FileReader(filePath)));
+
+		String[] row;
+		while ((row = parser.parseNext()) != null) {
+			source.add(row[0], row[1], row[2], row[3]);
+			PipelineMetrics.get().quadIngested();
+		}
+
+		return source;
+	}
+
+	/**
+	 * Adds a quad to the source.
+	 * @return false if the quad was already in the source.
+	 */
+	public boolean add(String subject, String relation, String object, String provenanceId) {
+		return add(dictionary.encode(subject), dictionary.encode(relation),
+				dictionary.encode(object), dictionary.encode(provenanceId));
+	}
+
+	/**
+	 * Adds a quad whose terms have already been encoded with this source's dictionary.
+	 * @return false if the quad was already in the source.
+	 */
+	boolean add(int subject, int relation, int object, int provenanceId) {
+		int slot = findSlot(subject, relation, object, provenanceId);
+		if (positionsTable[slot] != 0)
+			return false;
+
+		// The duplicate-detection table cannot grow beyond the largest array
+		if (size == maxTableLength / 2)
+			throw new IllegalStateException("The source cannot hold more than " + size + " quads");
+
+		ensureCapacity(size + 1);
+		subjects[size] = subject;
+		relations[size] = relation;
+		objects[size] = object;
+		provenances[size] = provenanceId;
+		positionsTable[slot] = size + 1;
+		++size;
+		indexes = null;
+		provenanceIndex = null;
+
+		// Keep the load factor of the table under 0.5
+		if (size > positionsTable.length / 2) {
+			rehash(positionsTable.length * 2);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the slot of the positions table where the given quad is stored, or
+	 * the empty slot where it should be stored.
+	 */
+	private int findSlot(int subject, int relation, int object, int provenanceId) {
+		int mask = positionsTable.length - 1;
+		int slot = hash(subject, relation, object, provenanceId) & mask;
+		while (true) {
+			int entry = positionsTable[slot];
+			if (entry == 0)
+				return slot;
+
+			int position = entry - 1;
+			if (subjects[position] == subject && relations[position] == relation
+					&& objects[position] == object && provenances[position] == provenanceId)
+				return slot;
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash(int newLength) {
+		positionsTable = new int[newLength];
+		int mask = newLength - 1;
+		for (int position = 0; position < size; ++position) {
+			int slot = hash(subjects[position], relations[position],
+					objects[position], provenances[position]) & mask;
+			while (positionsTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			positionsTable[slot] = position + 1;
+		}
+	}
+
+	private static int hash(int subject, int relation, int object, int provenanceId) {
+		int h = subject;
+		h = 31 * h + relation;
+		h = 31 * h + object;
+		h = 31 * h + provenanceId;
+		// Spread the bits, consecutive identifiers are very common
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= subjects.length)
+			return;
+
+		int newCapacity = (int)Math.min(Integer.MAX_VALUE - 8, (long)subjects.length + (subjects.length >> 1));
+		if (newCapacity < capacity)
+			throw new IllegalStateException("The source cannot hold more than " + subjects.length + " quads");
+
+		subjects = Arrays.copyOf(subjects, newCapacity);
+		relations = Arrays.copyOf(relations, newCapacity);
+		objects = Arrays.copyOf(objects, newCapacity);
+		provenances = Arrays.copyOf(provenances, newCapacity);
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Number of quads in the source.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getSubject(int position) {
+		return subjects[position];
+	}
+
+	public int getRelation(int position) {
+		return relations[position];
+	}
+
+	public int getObject(int position) {
+		return objects[position];
+	}
+
+	public int getProvenance(int position) {
+		return provenances[position];
+	}
+
+	/**
+	 * Decodes the quad stored at the given position.
+	 * @param position
+	 * @return
+	 */
+	public Quadruple<String, String, String, String> getQuadruple(int position) {
+		return new Quadruple<>(dictionary.decode(subjects[position]), dictionary.decode(relations[position]),
+				dictionary.decode(objects[position]), dictionary.decode(provenances[position]));
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the quad columns, the duplicates
+	 * table, the permutation and provenance indexes and (approximately) the dictionary.
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		long usage = 4L * (subjects.length + relations.length + objects.length + provenances.length)
+				+ 4L * positionsTable.length + dictionary.estimateMemoryUsage();
+		if (indexes != null) {
+			usage += 4L * indexes.length * size;
+		}
+		if (provenanceIndex != null) {
+			usage += provenanceIndex.getMemoryUsage();
+		}
+
+		return usage;
+	}
+
+	private PermutationIndex[] getIndexes() {
+		if (indexes == null) {
+			int[][] columns = {subjects, relations, objects, provenances};
+			int nTerms = dictionary.size();
+			indexes = new PermutationIndex[] {
+				new PermutationIndex("SPO", new int[] {PermutationIndex.SUBJECT, PermutationIndex.RELATION,
+						PermutationIndex.OBJECT, PermutationIndex.PROVENANCE}, columns, size, nTerms),
+				new PermutationIndex("POS", new int[] {PermutationIndex.RELATION, PermutationIndex.OBJECT,
+						PermutationIndex.SUBJECT, PermutationIndex.PROVENANCE}, columns, size, nTerms),
+				new PermutationIndex("OSP", new int[] {PermutationIndex.OBJECT, PermutationIndex.SUBJECT,
+						PermutationIndex.RELATION, PermutationIndex.PROVENANCE}, columns, size, nTerms),
+				new PermutationIndex("GSPO", new int[] {PermutationIndex.PROVENANCE, PermutationIndex.SUBJECT,
+						PermutationIndex.RELATION, PermutationIndex.OBJECT}, columns, size, nTerms)
+			};
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * Returns the positions of the quads matching a pattern of identifiers. The positions are
+	 * read from the permutation index that yields the narrowest range for the bound components;
+	 * the bound components outside the prefix of the index are checked on every quad of the range.
+	 * @param subject
+	 * @param relation
+	 * @param object
+	 * @param provenanceId
+	 * @return Positions of the matching quads. {@link TermDictionary#NULL_ID} stands for a variable.
+	 */
+	public PrimitiveIterator.OfInt matchPositions(final int subject, final int relation, final int object,
+			final int provenanceId) {
+		final int[] pattern = {subject, relation, object, provenanceId};
+		PermutationIndex bestIndex = null;
+		int[] bestRange = {0, size};
+		for (PermutationIndex index : getIndexes()) {
+			int prefixLength = index.getBoundPrefixLength(pattern);
+			if (prefixLength == 0)
+				continue;
+
+			int[] range = index.getRange(pattern, prefixLength);
+			if (bestIndex == null || range[1] - range[0] < bestRange[1] - bestRange[0]) {
+				bestIndex = index;
+				bestRange = range;
+			}
+		}
+
+		final PermutationIndex index = bestIndex;
+		final int from = bestRange[0];
+		final int to = bestRange[1];
+		return new PrimitiveIterator.OfInt() {
+
+			int next = advance(from);
+
+			/**
+			 * Returns the first index of the range, starting at the given one, whose quad
+			 * matches the pattern
+			 */
+			private int advance(int start) {
+				for (int i = start; i < to; ++i) {
+					int position = index == null ? i : index.getPosition(i);
+					if ((subject == TermDictionary.NULL_ID || subjects[position] == subject)
+							&& (relation == TermDictionary.NULL_ID || relations[position] == relation)
+							&& (object == TermDictionary.NULL_ID || objects[position] == object)
+							&& (provenanceId == TermDictionary.NULL_ID || provenances[position] == provenanceId))
+						return i;
+				}
+
+				return to;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < to;
+			}
+
+			@Override
+			public int nextInt() {
+				if (next >= to)
+					throw new NoSuchElementException();
+
+				int position = index == null ? next : index.getPosition(next);
+				next = advance(next + 1);
+				return position;
+			}
+
+		};
+	}
+
+	/**
+	 * Returns the quads matching the pattern using the permutation indexes.
+	 * @param pattern Quad pattern where null components are variables
+	 * @return
+	 */
+	@Override
+	public Iterable<Quadruple<String, String, String, String>> match(final Quadruple<String, String, String, String> pattern) {
+		final int subject = dictionary.lookup(pattern.getFirst());
+		final int relation = dictionary.lookup(pattern.getSecond());
+		final int object = dictionary.lookup(pattern.getThird());
+		final int provenanceId = dictionary.lookup(pattern.getFourth());
+		// A bound term that is not in the dictionary cannot have matches
+		final boolean empty = (pattern.getFirst() != null && subject == TermDictionary.NULL_ID)
+				|| (pattern.getSecond() != null && relation == TermDictionary.NULL_ID)
+				|| (pattern.getThird() != null && object == TermDictionary.NULL_ID)
+				|| (pattern.getFourth() != null && provenanceId == TermDictionary.NULL_ID);
+
+		return new Iterable<Quadruple<String, String, String, String>>() {
+
+			@Override
+			public Iterator<Quadruple<String, String, String, String>> iterator() {
+				if (empty)
+					return Collections.emptyIterator();
+
+				final PrimitiveIterator.OfInt positions = matchPositions(subject, relation, object, provenanceId);
+				return new Iterator<Quadruple<String, String, String, String>>() {
+
+					@Override
+					public boolean hasNext() {
+						return positions.hasNext();
+					}
+
+					@Override
+					public Quadruple<String, String, String, String> next() {
+						return getQuadruple(positions.nextInt());
+					}
+
+				};
+			}
+
+		};
+	}
+
+	/**
+	 * Returns the index from provenance identifiers to quad positions, which turns
+	 * provenance filters into bitmap operations.
+	 * @return
+	 */
+	public ProvenanceIndex getProvenanceIndex() {
+		if (provenanceIndex == null) {
+			provenanceIndex = new ProvenanceIndex(provenances, size, dictionary);
+		}
+
+		return provenanceIndex;
+	}
+
+	/**
+	 * Returns the quads matching the pattern among the given positions, e.g., the result of
+	 * a provenance filter evaluated on {@link #getProvenanceIndex()}. If the pattern binds the
+	 * subject, the relation or the object, the candidates come from the permutation indexes
+	 * and are looked up in the set; otherwise the set is iterated directly.
+	 * @param pattern Quad pattern where null components are variables
+	 * @param positions
+	 * @return
+	 */
+	public Iterable<Quadruple<String, String, String, String>> match(final Quadruple<String, String, String, String> pattern,
+			final CompressedBitmap positions) {
+		final int subject = dictionary.lookup(pattern.getFirst());
+		final int relation = dictionary.lookup(pattern.getSecond());
+		final int object = dictionary.lookup(pattern.getThird());
+		final int provenanceId = dictionary.lookup(pattern.getFourth());
+		final boolean empty = (pattern.getFirst() != null && subject == TermDictionary.NULL_ID)
+				|| (pattern.getSecond() != null && relation == TermDictionary.NULL_ID)
+				|| (pattern.getThird() != null && object == TermDictionary.NULL_ID)
+				|| (pattern.getFourth() != null && provenanceId == TermDictionary.NULL_ID);
+		final boolean scanPositions = subject == TermDictionary.NULL_ID && relation == TermDictionary.NULL_ID
+				&& object == TermDictionary.NULL_ID;
+
+		return new Iterable<Quadruple<String, String, String, String>>() {
+
+			@Override
+			public Iterator<Quadruple<String, String, String, String>> iterator() {
+				if (empty)
+					return Collections.emptyIterator();
+
+				final PrimitiveIterator.OfInt candidates = scanPositions ?
+						positions.iterator() : matchPositions(subject, relation, object, provenanceId);
+				return new Iterator<Quadruple<String, String, String, String>>() {
+
+					int next = advance();
+
+					/**
+					 * Returns the next candidate in the set that matches the pattern, or -1
+					 */
+					private int advance() {
+						while (candidates.hasNext()) {
+							int position = candidates.nextInt();
+							if (scanPositions ? position < size
+									&& (provenanceId == TermDictionary.NULL_ID || provenances[position] == provenanceId)
+									: positions.contains(position))
+								return position;
+						}
+
+						return -1;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					@Override
+					public Quadruple<String, String, String, String> next() {
+						if (next < 0)
+							throw new NoSuchElementException();
+
+						Quadruple<String, String, String, String> quad = getQuadruple(next);
+						next = advance();
+						return quad;
+					}
+
+				};
+			}
+
+		};
+	}
+
+	/**
+	 * Average number of bytes used per quad, dictionary included.
+	 * @return
+	 */
+	public double getMemoryPerQuad() {
+		if (size == 0)
+			return 0.0;
+
+		return (double)getMemoryUsage() / size;
+	}
+
+	@Override
+	public Iterator<Quadruple<String, String, String, String>> iterator() {
+		return new Iterator<Quadruple<String, String, String, String>>() {
+
+			int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Quadruple<String, String, String, String> next() {
+				if (position >= size)
+					throw new NoSuchElementException();
+
+				return getQuadruple(position++);
+			}
+
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "[" + size + " quads, " + dictionary.size() + " terms, "
+				+ String.format("%.2f", getMemoryPerQuad()) + " bytes/quad]";
+	}
+
+	public static void main(String[] args) throws IOException {
+		DictionaryEncodedRDFCubeDataSource source = DictionaryEncodedRDFCubeDataSource.build(args[0]);
+		System.out.println(source);
+	}
+
+}
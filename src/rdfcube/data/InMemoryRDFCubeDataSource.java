@@ -13,6 +13,7 @@ import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
 import com.univocity.parsers.tsv.TsvParser;
 import com.univocity.parsers.tsv.TsvParserSettings;
 
+import rdfcube.metrics.PipelineMetrics;
 import rdfcube.types.Quadruple;
 
 /**
@@ -29,7 +30,7 @@ public class InMemoryRDFCubeDataSource implements RDFCubeDataSource {
 	private MultiValuedMap<String, Quadruple<String, String, String, String>> object2Tuple;
 	
 	
-	private InMemoryRDFCubeDataSource() {
+	InMemoryRDFCubeDataSource() {
 		data = new LinkedHashSet<>();
 		subject2Tuple = new HashSetValuedHashMap<>();
 		object2Tuple = new HashSetValuedHashMap<>();
@@ -53,19 +54,43 @@ public class InMemoryRDFCubeDataSource implements RDFCubeDataSource {
 
 		String[] row;
 		while ((row = parser.parseNext()) != null) {
-			Quadruple<String, String, String, String> quad = 
-					new Quadruple<>(row[0], row[1], row[2], row[3]);
-			source.data.add(quad);
-			source.subject2Tuple.put(row[0], quad);
-			source.object2Tuple.put(row[2], quad);
+			source.add(new Quadruple<>(row[0], row[1], row[2], row[3]));
+			PipelineMetrics.get().quadIngested();
 		}
 			
 		return source;		
 	}
 
+	/**
+	 * Adds a quad to the source and its indexes.
+	 * @param quad
+	 */
+	void add(Quadruple<String, String, String, String> quad) {
+		data.add(quad);
+		subject2Tuple.put(quad.getFirst(), quad);
+		object2Tuple.put(quad.getThird(), quad);
+	}
+
 	@Override
 	public Iterator<Quadruple<String, String, String, String>> iterator() {
 		return data.iterator();
 	}
+
+	/**
+	 * Returns the quads matching the pattern. If the subject or the object is bound,
+	 * only the quads with that subject or object are checked.
+	 * @param pattern Quad pattern where null components are variables
+	 * @return
+	 */
+	@Override
+	public Iterable<Quadruple<String, String, String, String>> match(Quadruple<String, String, String, String> pattern) {
+		if (pattern.getFirst() != null)
+			return RDFCubeDataSource.filter(subject2Tuple.get(pattern.getFirst()), pattern);
+
+		if (pattern.getThird() != null)
+			return RDFCubeDataSource.filter(object2Tuple.get(pattern.getThird()), pattern);
+
+		return RDFCubeDataSource.filter(data, pattern);
+	}
 	
 }
@@ -0,0 +1,163 @@
+package rdfcube.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Permutation index of an {@link OffHeapRDFCubeDataSource}: the positions of its quads sorted
+ * by the identifiers of their components in a given order, stored in a direct buffer. It is
+ * built and searched like a {@link PermutationIndex}; only the counts of the radix sort are
+ * allocated on the heap, and only while the index is built.
+ *
+ */
+class OffHeapPermutationIndex {
+
+	private String name;
+
+	/**
+	 * Components in the order used to sort the quads
+	 */
+	private int[] order;
+
+	private OffHeapRDFCubeDataSource source;
+
+	private IntBuffer positions;
+
+	/**
+	 * Sorts the positions of the quads with a least-significant-digit radix sort, one counting
+	 * pass per component.
+	 * @param name
+	 * @param order
+	 * @param source
+	 * @param size Number of quads in the source
+	 * @param nTerms Number of terms in the dictionary of the source
+	 */
+	OffHeapPermutationIndex(String name, int[] order, OffHeapRDFCubeDataSource source, int size, int nTerms) {
+		this.name = name;
+		this.order = order;
+		this.source = source;
+
+		positions = allocate(size);
+		for (int i = 0; i < size; ++i) {
+			positions.put(i, i);
+		}
+		IntBuffer buffer = allocate(size);
+		// Identifiers are shifted by one so that null terms (NULL_ID) sort first.
+		// After the prefix sums, counts[id + 1] is the first slot of the identifier.
+		int[] counts = new int[nTerms + 2];
+		for (int k = order.length - 1; k >= 0; --k) {
+			int component = order[k];
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; ++i) {
+				++counts[source.get(positions.get(i), component) + 2];
+			}
+			for (int id = 1; id < counts.length; ++id) {
+				counts[id] += counts[id - 1];
+			}
+			for (int i = 0; i < size; ++i) {
+				int position = positions.get(i);
+				buffer.put(counts[source.get(position, component) + 1]++, position);
+			}
+			IntBuffer sorted = buffer;
+			buffer = positions;
+			positions = sorted;
+		}
+	}
+
+	private static IntBuffer allocate(int nInts) {
+		return ByteBuffer.allocateDirect(nInts * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Number of leading components of the index order that are bound in the pattern.
+	 * @param pattern Identifiers indexed by component, {@link TermDictionary#NULL_ID} for variables
+	 * @return
+	 */
+	int getBoundPrefixLength(int[] pattern) {
+		int length = 0;
+		while (length < order.length && pattern[order[length]] != TermDictionary.NULL_ID) {
+			++length;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the range [from, to) of the index whose quads agree with the pattern on
+	 * the first prefixLength components of the index order.
+	 * @param pattern Identifiers indexed by component
+	 * @param prefixLength
+	 * @return
+	 */
+	int[] getRange(int[] pattern, int prefixLength) {
+		int[] key = new int[prefixLength];
+		for (int k = 0; k < prefixLength; ++k) {
+			key[k] = pattern[order[k]];
+		}
+
+		return new int[] {search(key, false), search(key, true)};
+	}
+
+	/**
+	 * Returns the first index whose quad is greater than or equal to the key, or strictly
+	 * greater if after is true.
+	 */
+	private int search(int[] key, boolean after) {
+		int low = 0;
+		int high = positions.capacity();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int compare = compare(positions.get(middle), key);
+			if (compare < 0 || (after && compare == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private int compare(int position, int[] key) {
+		for (int k = 0; k < key.length; ++k) {
+			int id = source.get(position, order[k]);
+			if (id != key[k])
+				return id < key[k] ? -1 : 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Position in the source of the quad at the given index of the permutation.
+	 * @param index
+	 * @return
+	 */
+	int getPosition(int index) {
+		return positions.get(index);
+	}
+
+	int size() {
+		return positions.capacity();
+	}
+
+	/**
+	 * Number of bytes allocated outside the heap.
+	 * @return
+	 */
+	long getOffHeapMemoryUsage() {
+		return 4L * positions.capacity();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
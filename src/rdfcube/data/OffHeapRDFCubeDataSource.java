@@ -0,0 +1,472 @@
+package rdfcube.data;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.univocity.parsers.tsv.TsvParser;
+import com.univocity.parsers.tsv.TsvParserSettings;
+
+import rdfcube.metrics.PipelineMetrics;
+import rdfcube.types.Quadruple;
+
+/**
+ * RDF cube whose encoded quads and indexes live outside the Java heap. Quads are encoded with a
+ * {@link TermDictionary}, as in {@link DictionaryEncodedRDFCubeDataSource}, and stored as
+ * four ints in segments of direct buffers of up to 64 MB; the table used to discard
+ * duplicate quads and the permutation indexes used by {@link #match(Quadruple)} are direct
+ * buffers as well. Only the dictionary stays on the heap, so the garbage collector does not
+ * have to trace the quads.
+ * <p>
+ * The duplicate-detection table is a single direct buffer of at most 2^28 slots kept at most
+ * half full, so a source holds up to 2^27 (about 134 million) quads, i.e., 2 GB of encoded
+ * quads plus 2 GB of indexes. The indexes are built on the first match after a change.
+ * <p>
+ * The iterators return a single flyweight {@link Quadruple} that is overwritten by every call
+ * to next(), so callers must copy the quads they keep. After {@link #close()} the buffers are
+ * no longer referenced by the source and any access fails; the memory itself is released when
+ * the buffers are collected.
+ *
+ */
+public class OffHeapRDFCubeDataSource implements RDFCubeDataSource, Closeable {
+
+	/**
+	 * Every segment holds up to 2^segmentBits quads, i.e., 64 MB
+	 */
+	private static final int segmentBits = 22;
+
+	private static final int segmentMask = (1 << segmentBits) - 1;
+
+	private static final int initialSegmentSize = 1 << 10;
+
+	private static final int initialTableSize = 1 << 12;
+
+	/**
+	 * Largest table a direct buffer can hold
+	 */
+	private static final int maxTableSize = 1 << 28;
+
+	/**
+	 * The table is kept at most half full
+	 */
+	private static final int maxSize = maxTableSize / 2;
+
+	private TermDictionary dictionary;
+
+	private List<IntBuffer> segments;
+
+	private int size;
+
+	/**
+	 * Open-addressing hash table used to detect duplicate quads. Every slot
+	 * contains the position of a quad plus one, or 0 if the slot is empty.
+	 */
+	private IntBuffer positionsTable;
+
+	/**
+	 * SPO, POS, OSP and GSPO indexes, built on demand and dropped when a quad is added
+	 */
+	private OffHeapPermutationIndex[] indexes;
+
+	private boolean closed;
+
+	public OffHeapRDFCubeDataSource() {
+		dictionary = new TermDictionary();
+		segments = new ArrayList<>();
+		positionsTable = allocate(initialTableSize);
+		size = 0;
+		closed = false;
+	}
+
+	private static IntBuffer allocate(int nInts) {
+		return ByteBuffer.allocateDirect(nInts * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	/**
+	 * It builds an off-heap source from a file path. The method assumes the file is given as
+	 * quadruples in TSV format: subject relation object provenance-id
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public static OffHeapRDFCubeDataSource build(String filePath) throws IOException {
+		OffHeapRDFCubeDataSource source = new OffHeapRDFCubeDataSource();
+
+		TsvParserSettings settings = new TsvParserSettings();
+		settings.getFormat().setLineSeparator("\n");
+		TsvParser parser = new TsvParser(settings);
+
+		parser.beginParsing(new BufferedReader(new FileReader(filePath)));
+
+		String[] row;
+		while ((row = parser.parseNext()) != null) {
+			source.add(row[0], row[1], row[2], row[3]);
+			PipelineMetrics.get().quadIngested();
+		}
+
+		return source;
+	}
+
+	/**
+	 * Adds a quad to the source.
+	 * @return false if the quad was already in the source.
+	 */
+	public boolean add(String subject, String relation, String object, String provenanceId) {
+		checkOpen();
+		int subjectId = dictionary.encode(subject);
+		int relationId = dictionary.encode(relation);
+		int objectId = dictionary.encode(object);
+		int provenanceIdId = dictionary.encode(provenanceId);
+		int slot = findSlot(subjectId, relationId, objectId, provenanceIdId);
+		if (positionsTable.get(slot) != 0)
+			return false;
+
+		if (size == maxSize)
+			throw new IllegalStateException("The source cannot hold more than " + size + " quads");
+
+		IntBuffer segment = ensureCapacity(size + 1);
+		int offset = (size & segmentMask) << 2;
+		segment.put(offset, subjectId);
+		segment.put(offset + 1, relationId);
+		segment.put(offset + 2, objectId);
+		segment.put(offset + 3, provenanceIdId);
+		positionsTable.put(slot, size + 1);
+		++size;
+		indexes = null;
+
+		// Keep the load factor of the table at most 0.5
+		if (size * 2L > positionsTable.capacity()) {
+			rehash(positionsTable.capacity() * 2);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the segment where the quad at position capacity - 1 must be stored. The last
+	 * segment doubles its size until it reaches the maximum, then a new segment is started.
+	 */
+	private IntBuffer ensureCapacity(int capacity) {
+		int segmentIndex = (capacity - 1) >>> segmentBits;
+		int quadsInSegment = ((capacity - 1) & segmentMask) + 1;
+		if (segmentIndex == segments.size()) {
+			segments.add(allocate(4 * initialSegmentSize));
+		}
+		IntBuffer segment = segments.get(segmentIndex);
+		if (segment.capacity() < 4 * quadsInSegment) {
+			IntBuffer larger = allocate(Math.min(segment.capacity() * 2, 4 << segmentBits));
+			segment.rewind();
+			larger.put(segment);
+			segments.set(segmentIndex, larger);
+			segment = larger;
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Returns the identifier of a component of the quad at the given position.
+	 */
+	int get(int position, int component) {
+		return segments.get(position >>> segmentBits).get(((position & segmentMask) << 2) + component);
+	}
+
+	/**
+	 * Returns the slot of the positions table where the given quad is stored, or
+	 * the empty slot where it should be stored.
+	 */
+	private int findSlot(int subject, int relation, int object, int provenanceId) {
+		int mask = positionsTable.capacity() - 1;
+		int slot = hash(subject, relation, object, provenanceId) & mask;
+		while (true) {
+			int entry = positionsTable.get(slot);
+			if (entry == 0)
+				return slot;
+
+			int position = entry - 1;
+			if (get(position, 0) == subject && get(position, 1) == relation
+					&& get(position, 2) == object && get(position, 3) == provenanceId)
+				return slot;
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void rehash(int newLength) {
+		positionsTable = allocate(newLength);
+		int mask = newLength - 1;
+		for (int position = 0; position < size; ++position) {
+			int slot = hash(get(position, 0), get(position, 1), get(position, 2), get(position, 3)) & mask;
+			while (positionsTable.get(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			positionsTable.put(slot, position + 1);
+		}
+	}
+
+	private static int hash(int subject, int relation, int object, int provenanceId) {
+		int h = subject;
+		h = 31 * h + relation;
+		h = 31 * h + object;
+		h = 31 * h + provenanceId;
+		// Spread the bits, consecutive identifiers are very common
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("The source has been closed");
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Number of quads in the source.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of bytes allocated outside the heap.
+	 * @return
+	 */
+	public long getOffHeapMemoryUsage() {
+		if (closed)
+			return 0;
+
+		long usage = 4L * positionsTable.capacity();
+		for (IntBuffer segment : segments) {
+			usage += 4L * segment.capacity();
+		}
+		if (indexes != null) {
+			for (OffHeapPermutationIndex index : indexes) {
+				usage += index.getOffHeapMemoryUsage();
+			}
+		}
+
+		return usage;
+	}
+
+	@Override
+	public Iterator<Quadruple<String, String, String, String>> iterator() {
+		checkOpen();
+		return new Iterator<Quadruple<String, String, String, String>>() {
+
+			int position = 0;
+
+			final Quadruple<String, String, String, String> flyweight = new Quadruple<>(null, null, null, null);
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Quadruple<String, String, String, String> next() {
+				if (position >= size)
+					throw new NoSuchElementException();
+
+				decode(position++, flyweight);
+				return flyweight;
+			}
+
+		};
+	}
+
+	/**
+	 * Writes the terms of the quad at the given position into the flyweight.
+	 */
+	private void decode(int position, Quadruple<String, String, String, String> flyweight) {
+		checkOpen();
+		IntBuffer segment = segments.get(position >>> segmentBits);
+		int offset = (position & segmentMask) << 2;
+		flyweight.setFirst(dictionary.decode(segment.get(offset)));
+		flyweight.setSecond(dictionary.decode(segment.get(offset + 1)));
+		flyweight.setThird(dictionary.decode(segment.get(offset + 2)));
+		flyweight.setFourth(dictionary.decode(segment.get(offset + 3)));
+	}
+
+	private OffHeapPermutationIndex[] getIndexes() {
+		if (indexes == null) {
+			int nTerms = dictionary.size();
+			indexes = new OffHeapPermutationIndex[] {
+				new OffHeapPermutationIndex("SPO", new int[] {PermutationIndex.SUBJECT, PermutationIndex.RELATION,
+						PermutationIndex.OBJECT, PermutationIndex.PROVENANCE}, this, size, nTerms),
+				new OffHeapPermutationIndex("POS", new int[] {PermutationIndex.RELATION, PermutationIndex.OBJECT,
+						PermutationIndex.SUBJECT, PermutationIndex.PROVENANCE}, this, size, nTerms),
+				new OffHeapPermutationIndex("OSP", new int[] {PermutationIndex.OBJECT, PermutationIndex.SUBJECT,
+						PermutationIndex.RELATION, PermutationIndex.PROVENANCE}, this, size, nTerms),
+				new OffHeapPermutationIndex("GSPO", new int[] {PermutationIndex.PROVENANCE, PermutationIndex.SUBJECT,
+						PermutationIndex.RELATION, PermutationIndex.OBJECT}, this, size, nTerms)
+			};
+		}
+
+		return indexes;
+	}
+
+	/**
+	 * Returns the quads matching the pattern. They are read from the permutation index that yields
+	 * the narrowest range for the bound components, as in {@link DictionaryEncodedRDFCubeDataSource};
+	 * the bound components outside the prefix of the index are checked on every quad of the range.
+	 * The iterators return a flyweight quad.
+	 * @param pattern Quad pattern where null components are variables
+	 * @return
+	 */
+	@Override
+	public Iterable<Quadruple<String, String, String, String>> match(final Quadruple<String, String, String, String> pattern) {
+		checkOpen();
+		final int[] ids = {dictionary.lookup(pattern.getFirst()), dictionary.lookup(pattern.getSecond()),
+				dictionary.lookup(pattern.getThird()), dictionary.lookup(pattern.getFourth())};
+		// A bound term that is not in the dictionary cannot have matches
+		final boolean empty = (pattern.getFirst() != null && ids[0] == TermDictionary.NULL_ID)
+				|| (pattern.getSecond() != null && ids[1] == TermDictionary.NULL_ID)
+				|| (pattern.getThird() != null && ids[2] == TermDictionary.NULL_ID)
+				|| (pattern.getFourth() != null && ids[3] == TermDictionary.NULL_ID);
+
+		return new Iterable<Quadruple<String, String, String, String>>() {
+
+			@Override
+			public Iterator<Quadruple<String, String, String, String>> iterator() {
+				if (empty)
+					return Collections.emptyIterator();
+
+				OffHeapPermutationIndex bestIndex = null;
+				int[] bestRange = {0, size};
+				for (OffHeapPermutationIndex index : getIndexes()) {
+					int prefixLength = index.getBoundPrefixLength(ids);
+					if (prefixLength == 0)
+						continue;
+
+					int[] range = index.getRange(ids, prefixLength);
+					if (bestIndex == null || range[1] - range[0] < bestRange[1] - bestRange[0]) {
+						bestIndex = index;
+						bestRange = range;
+					}
+				}
+
+				final OffHeapPermutationIndex index = bestIndex;
+				final int to = bestRange[1];
+				final int from = bestRange[0];
+				return new Iterator<Quadruple<String, String, String, String>>() {
+
+					int next = advance(from);
+
+					final Quadruple<String, String, String, String> flyweight = new Quadruple<>(null, null, null, null);
+
+					/**
+					 * Returns the first index of the range, starting at the given one, whose quad
+					 * matches the pattern
+					 */
+					private int advance(int start) {
+						for (int i = start; i < to; ++i) {
+							int position = index == null ? i : index.getPosition(i);
+							if ((ids[0] == TermDictionary.NULL_ID || get(position, 0) == ids[0])
+									&& (ids[1] == TermDictionary.NULL_ID || get(position, 1) == ids[1])
+									&& (ids[2] == TermDictionary.NULL_ID || get(position, 2) == ids[2])
+									&& (ids[3] == TermDictionary.NULL_ID || get(position, 3) == ids[3]))
+								return i;
+						}
+
+						return to;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < to;
+					}
+
+					@Override
+					public Quadruple<String, String, String, String> next() {
+						if (next >= to)
+							throw new NoSuchElementException();
+
+						decode(index == null ? next : index.getPosition(next), flyweight);
+						next = advance(next + 1);
+						return flyweight;
+					}
+
+				};
+			}
+
+		};
+	}
+
+	/**
+	 * Drops the references to the direct buffers. Calling it more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+
+		closed = true;
+		segments = null;
+		positionsTable = null;
+		indexes = null;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + size + " quads, " + dictionary.size() + " terms, "
+				+ getOffHeapMemoryUsage() / 1024 + " KB off-heap]";
+	}
+
+	/**
+	 * Loads a cube off-heap and verifies that matching every relation, through the indexes and
+	 * by filtering a scan, returns the same quads in the same order as the dictionary-encoded
+	 * source. Both go through the flyweight, so this checks that the quads are not overwritten
+	 * before the caller reads them.
+	 * Usage: cube-file
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		DictionaryEncodedRDFCubeDataSource reference = DictionaryEncodedRDFCubeDataSource.build(args[0]);
+		try (OffHeapRDFCubeDataSource source = OffHeapRDFCubeDataSource.build(args[0])) {
+			System.out.println(source);
+			Set<String> relations = new LinkedHashSet<>();
+			for (Quadruple<String, String, String, String> quad : reference) {
+				relations.add(quad.getSecond());
+			}
+			for (String relation : relations) {
+				Quadruple<String, String, String, String> pattern = new Quadruple<>(null, relation, null, null);
+				check(pattern, "Matching", reference.match(pattern), source.match(pattern));
+				check(pattern, "Filtering", RDFCubeDataSource.filter(reference, pattern),
+						RDFCubeDataSource.filter(source, pattern));
+			}
+		}
+	}
+
+	private static void check(Quadruple<String, String, String, String> pattern, String operation,
+			Iterable<Quadruple<String, String, String, String>> expectedQuads,
+			Iterable<Quadruple<String, String, String, String>> actualQuads) {
+		List<String> expected = new ArrayList<>();
+		for (Quadruple<String, String, String, String> quad : expectedQuads) {
+			expected.add(quad.toString());
+		}
+		List<String> actual = new ArrayList<>();
+		for (Quadruple<String, String, String, String> quad : actualQuads) {
+			actual.add(quad.toString());
+		}
+		if (!actual.equals(expected)) {
+			System.err.println(operation + " " + pattern + " returns " + actual + " instead of " + expected);
+		}
+	}
+
+}
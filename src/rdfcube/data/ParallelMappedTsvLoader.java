@@ -0,0 +1,422 @@
+package rdfcube.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import rdfcube.metrics.PipelineMetrics;
+
+/**
+ * Loads a cube file in TSV format (subject relation object provenance-id) into a
+ * {@link DictionaryEncodedRDFCubeDataSource} using several threads. The file is memory-mapped
+ * and cut into chunks that end on a newline. Every chunk is parsed by a worker straight from
+ * the mapped bytes into a local dictionary and an array of local identifiers, so a string is
+ * decoded once per distinct term of the chunk and never per row. The chunks are merged in file
+ * order, which assigns the same identifiers and positions as
+ * {@link DictionaryEncodedRDFCubeDataSource#build(String)}.
+ * <p>
+ * The file must be encoded in UTF-8. Tabs and newlines never occur within a multi-byte UTF-8
+ * sequence, hence splitting on bytes never cuts a character. The parser follows the settings of
+ * the sequential build: surrounding whitespace is trimmed, empty fields are null, lines starting
+ * with # are comments and the escapes \t, \n, \r and \\ are replaced. Lines with fewer than
+ * four fields are ignored and counted, see {@link #getMalformedLines()}.
+ *
+ */
+public class ParallelMappedTsvLoader {
+
+	public static final int defaultChunkSize = 32 << 20;
+
+	private int nThreads;
+
+	private int chunkSize;
+
+	/**
+	 * Lines ignored by the last load because they have fewer than four fields
+	 */
+	private long malformedLines;
+
+	/**
+	 * Quads and distinct terms of a chunk. Local identifiers are assigned in order of first
+	 * appearance, null terms are {@link TermDictionary#NULL_ID}.
+	 */
+	private static class ParsedChunk {
+
+		String[] terms;
+
+		int[] quads;
+
+		int nQuads;
+
+		int nMalformedLines;
+
+	}
+
+	public ParallelMappedTsvLoader(int nThreads, int chunkSize) {
+		if (nThreads < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("The number of threads and the chunk size must be positive");
+
+		this.nThreads = nThreads;
+		this.chunkSize = chunkSize;
+	}
+
+	public ParallelMappedTsvLoader(int nThreads) {
+		this(nThreads, defaultChunkSize);
+	}
+
+	public ParallelMappedTsvLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Builds a dictionary-encoded source from a file path.
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public DictionaryEncodedRDFCubeDataSource load(String filePath) throws IOException {
+		DictionaryEncodedRDFCubeDataSource source = new DictionaryEncodedRDFCubeDataSource();
+		malformedLines = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		// Parsed chunks waiting to be merged, in file order. We bound their number
+		// so that at most a few chunks per thread are kept in memory.
+		Deque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(filePath, "r");
+				final FileChannel channel = randomAccessFile.getChannel()) {
+			long fileSize = channel.size();
+			long start = 0;
+			while (start < fileSize) {
+				final long chunkStart = start;
+				final long chunkEnd = findChunkEnd(channel, start + chunkSize, fileSize);
+				if (chunkEnd - chunkStart > Integer.MAX_VALUE)
+					throw new IOException("Line longer than 2 GB at offset " + chunkStart + " of " + filePath);
+
+				pending.add(executor.submit(new Callable<ParsedChunk>() {
+					@Override
+					public ParsedChunk call() throws IOException {
+						return parse(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart));
+					}
+				}));
+				start = chunkEnd;
+
+				if (pending.size() > 2 * nThreads) {
+					malformedLines += merge(pending.poll().get(), source);
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				malformedLines += merge(pending.poll().get(), source);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The parsing of " + filePath + " was interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+
+			throw new IllegalStateException("The parsing of " + filePath + " failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return source;
+	}
+
+	/**
+	 * Number of lines the last load ignored because they have fewer than four fields.
+	 * Empty lines, lines made of whitespace and comments are not counted.
+	 * @return
+	 */
+	public long getMalformedLines() {
+		return malformedLines;
+	}
+
+	/**
+	 * Returns the offset following the first newline at or after the given offset,
+	 * or the size of the file if there is none.
+	 */
+	private static long findChunkEnd(FileChannel channel, long offset, long fileSize) throws IOException {
+		if (offset >= fileSize)
+			return fileSize;
+
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long position = offset;
+		while (position < fileSize) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				break;
+
+			for (int i = 0; i < read; ++i) {
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+
+		return fileSize;
+	}
+
+	/**
+	 * Encodes the terms of a chunk with the dictionary of the source and adds its quads.
+	 * @return the number of malformed lines of the chunk
+	 */
+	private static int merge(ParsedChunk chunk, DictionaryEncodedRDFCubeDataSource source) {
+		TermDictionary dictionary = source.getDictionary();
+		int[] ids = new int[chunk.terms.length];
+		for (int local = 0; local < ids.length; ++local) {
+			ids[local] = dictionary.encode(chunk.terms[local]);
+		}
+
+		int[] quads = chunk.quads;
+		for (int i = 0; i < 4 * chunk.nQuads; i += 4) {
+			source.add(global(ids, quads[i]), global(ids, quads[i + 1]), global(ids, quads[i + 2]), global(ids, quads[i + 3]));
+			PipelineMetrics.get().quadIngested();
+		}
+
+		return chunk.nMalformedLines;
+	}
+
+	private static int global(int[] ids, int local) {
+		return local == TermDictionary.NULL_ID ? TermDictionary.NULL_ID : ids[local];
+	}
+
+	private static ParsedChunk parse(MappedByteBuffer buffer) {
+		ChunkParser parser = new ChunkParser(buffer);
+		parser.parse();
+		ParsedChunk chunk = new ParsedChunk();
+		chunk.terms = parser.decodeTerms();
+		chunk.quads = parser.quads;
+		chunk.nQuads = parser.nQuads;
+		chunk.nMalformedLines = parser.nMalformedLines;
+
+		return chunk;
+	}
+
+	/**
+	 * Parses the lines of a chunk. Distinct terms are kept as (offset, length) pairs of the
+	 * buffer in an open-addressing table and decoded once the whole chunk has been read.
+	 */
+	private static class ChunkParser {
+
+		private ByteBuffer buffer;
+
+		private int[] table;
+
+		private int[] termOffsets;
+
+		private int[] termLengths;
+
+		private int[] termHashes;
+
+		private int nTerms;
+
+		int[] quads;
+
+		int nQuads;
+
+		int nMalformedLines;
+
+		private int[] fieldStarts;
+
+		private int[] fieldEnds;
+
+		ChunkParser(ByteBuffer buffer) {
+			this.buffer = buffer;
+			table = new int[1 << 12];
+			termOffsets = new int[1 << 10];
+			termLengths = new int[1 << 10];
+			termHashes = new int[1 << 10];
+			nTerms = 0;
+			quads = new int[4 << 10];
+			nQuads = 0;
+			nMalformedLines = 0;
+			fieldStarts = new int[4];
+			fieldEnds = new int[4];
+		}
+
+		void parse() {
+			int limit = buffer.limit();
+			int lineStart = 0;
+			while (lineStart < limit) {
+				int lineEnd = lineStart;
+				while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+					++lineEnd;
+				}
+				parseLine(lineStart, lineEnd);
+				lineStart = lineEnd + 1;
+			}
+		}
+
+		private void parseLine(int start, int end) {
+			if (start == end || buffer.get(start) == '#')
+				return;
+
+			int nFields = 0;
+			int fieldStart = start;
+			for (int position = start; position <= end && nFields < 4; ++position) {
+				if (position == end || buffer.get(position) == '\t') {
+					fieldStarts[nFields] = fieldStart;
+					fieldEnds[nFields] = position;
+					++nFields;
+					fieldStart = position + 1;
+				}
+			}
+
+			if (nFields < 4) {
+				// Lines made of whitespace are skipped silently
+				if (nFields > 1 || trimStart(start, end) < end) {
+					++nMalformedLines;
+				}
+				return;
+			}
+
+			if (4 * (nQuads + 1) > quads.length) {
+				quads = Arrays.copyOf(quads, 2 * quads.length);
+			}
+			for (int k = 0; k < 4; ++k) {
+				int from = trimStart(fieldStarts[k], fieldEnds[k]);
+				int to = trimEnd(from, fieldEnds[k]);
+				quads[4 * nQuads + k] = from == to ? TermDictionary.NULL_ID : lookup(from, to - from);
+			}
+			++nQuads;
+		}
+
+		private int trimStart(int from, int to) {
+			while (from < to && (buffer.get(from) & 0xFF) <= ' ') {
+				++from;
+			}
+			return from;
+		}
+
+		private int trimEnd(int from, int to) {
+			while (to > from && (buffer.get(to - 1) & 0xFF) <= ' ') {
+				--to;
+			}
+			return to;
+		}
+
+		/**
+		 * Returns the local identifier of the term stored in the given bytes.
+		 */
+		private int lookup(int offset, int length) {
+			int hash = 1;
+			for (int i = offset; i < offset + length; ++i) {
+				hash = 31 * hash + buffer.get(i);
+			}
+			hash ^= hash >>> 16;
+
+			int mask = table.length - 1;
+			int slot = hash & mask;
+			while (table[slot] != 0) {
+				int id = table[slot] - 1;
+				if (termHashes[id] == hash && termLengths[id] == length && sameBytes(termOffsets[id], offset, length))
+					return id;
+
+				slot = (slot + 1) & mask;
+			}
+
+			if (nTerms == termOffsets.length) {
+				termOffsets = Arrays.copyOf(termOffsets, 2 * nTerms);
+				termLengths = Arrays.copyOf(termLengths, 2 * nTerms);
+				termHashes = Arrays.copyOf(termHashes, 2 * nTerms);
+			}
+			int id = nTerms++;
+			termOffsets[id] = offset;
+			termLengths[id] = length;
+			termHashes[id] = hash;
+			table[slot] = id + 1;
+
+			// Keep the load factor of the table under 0.5
+			if (nTerms * 2 > table.length) {
+				rehash(2 * table.length);
+			}
+
+			return id;
+		}
+
+		private boolean sameBytes(int offset1, int offset2, int length) {
+			for (int i = 0; i < length; ++i) {
+				if (buffer.get(offset1 + i) != buffer.get(offset2 + i))
+					return false;
+			}
+			return true;
+		}
+
+		private void rehash(int newLength) {
+			table = new int[newLength];
+			int mask = newLength - 1;
+			for (int id = 0; id < nTerms; ++id) {
+				int slot = termHashes[id] & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = id + 1;
+			}
+		}
+
+		/**
+		 * Decodes the distinct terms of the chunk. Two terms may only differ in their
+		 * escapes (e.g. \q and \\q) and decode to the same string; the dictionary of the
+		 * source then gives them the same identifier.
+		 */
+		String[] decodeTerms() {
+			String[] terms = new String[nTerms];
+			for (int id = 0; id < nTerms; ++id) {
+				terms[id] = decode(termOffsets[id], termLengths[id]);
+			}
+			return terms;
+		}
+
+		private String decode(int offset, int length) {
+			byte[] bytes = new byte[length];
+			int n = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				byte b = buffer.get(i);
+				if (b == '\\' && i + 1 < offset + length) {
+					byte next = buffer.get(i + 1);
+					byte unescaped = next == 't' ? (byte)'\t' : next == 'n' ? (byte)'\n'
+							: next == 'r' ? (byte)'\r' : next == '\\' ? (byte)'\\' : 0;
+					if (unescaped != 0) {
+						bytes[n++] = unescaped;
+						++i;
+						continue;
+					}
+				}
+				bytes[n++] = b;
+			}
+			return new String(bytes, 0, n, StandardCharsets.UTF_8);
+		}
+
+	}
+
+	/**
+	 * Usage: cube-file [threads] [chunk-size]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int nThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : defaultChunkSize;
+		long start = System.nanoTime();
+		ParallelMappedTsvLoader loader = new ParallelMappedTsvLoader(nThreads, chunkSize);
+		DictionaryEncodedRDFCubeDataSource source = loader.load(args[0]);
+		long nanos = System.nanoTime() - start;
+		System.out.println(source + " loaded in " + nanos / 1000000 + " ms ("
+				+ String.format("%.0f", source.size() / (nanos / 1e9)) + " quads/s)");
+		if (loader.getMalformedLines() > 0) {
+			System.out.println(loader.getMalformedLines() + " malformed lines ignored");
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package rdfcube.data;
+
+import java.util.Arrays;
+
+/**
+ * Positions of the quads of a {@link DictionaryEncodedRDFCubeDataSource} sorted by
+ * the identifiers of their components in a given order, e.g., relation, object, subject
+ * and provenance identifier for a POS index. The quads matching a pattern whose bound
+ * components form a prefix of the order are a contiguous range of the index, found
+ * with two binary searches.
+ *
+ */
+class PermutationIndex {
+
+	static final int SUBJECT = 0;
+
+	static final int RELATION = 1;
+
+	static final int OBJECT = 2;
+
+	static final int PROVENANCE = 3;
+
+	private String name;
+
+	/**
+	 * Components in the order used to sort the quads
+	 */
+	private int[] order;
+
+	/**
+	 * Columns of the source in the order of the index
+	 */
+	private int[][] columns;
+
+	private int[] positions;
+
+	/**
+	 * Sorts the positions of the quads. The sort is a least-significant-digit radix sort
+	 * with one counting pass per component, hence linear in the number of quads plus
+	 * the number of terms.
+	 * @param name
+	 * @param order
+	 * @param sourceColumns Subject, relation, object and provenance columns of the source
+	 * @param size Number of quads in the columns
+	 * @param nTerms Number of terms in the dictionary of the source
+	 */
+	PermutationIndex(String name, int[] order, int[][] sourceColumns, int size, int nTerms) {
+		this.name = name;
+		this.order = order;
+		columns = new int[order.length][];
+		for (int k = 0; k < order.length; ++k) {
+			columns[k] = sourceColumns[order[k]];
+		}
+
+		positions = new int[size];
+		for (int i = 0; i < size; ++i) {
+			positions[i] = i;
+		}
+		int[] buffer = new int[size];
+		// Identifiers are shifted by one so that null terms (NULL_ID) sort first.
+		// After the prefix sums, counts[id + 1] is the first slot of the identifier.
+		int[] counts = new int[nTerms + 2];
+		for (int k = order.length - 1; k >= 0; --k) {
+			int[] column = columns[k];
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; ++i) {
+				++counts[column[positions[i]] + 2];
+			}
+			for (int id = 1; id < counts.length; ++id) {
+				counts[id] += counts[id - 1];
+			}
+			for (int i = 0; i < size; ++i) {
+				int position = positions[i];
+				buffer[counts[column[position] + 1]++] = position;
+			}
+			int[] sorted = buffer;
+			buffer = positions;
+			positions = sorted;
+		}
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Number of leading components of the index order that are bound in the pattern.
+	 * @param pattern Identifiers indexed by component, {@link TermDictionary#NULL_ID} for variables
+	 * @return
+	 */
+	int getBoundPrefixLength(int[] pattern) {
+		int length = 0;
+		while (length < order.length && pattern[order[length]] != TermDictionary.NULL_ID) {
+			++length;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the range [from, to) of the index whose quads agree with the pattern on
+	 * the first prefixLength components of the index order.
+	 * @param pattern Identifiers indexed by component
+	 * @param prefixLength
+	 * @return
+	 */
+	int[] getRange(int[] pattern, int prefixLength) {
+		int[] key = new int[prefixLength];
+		for (int k = 0; k < prefixLength; ++k) {
+			key[k] = pattern[order[k]];
+		}
+
+		return new int[] {search(key, false), search(key, true)};
+	}
+
+	/**
+	 * Returns the first index whose quad is greater than or equal to the key, or strictly
+	 * greater if after is true.
+	 */
+	private int search(int[] key, boolean after) {
+		int low = 0;
+		int high = positions.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int compare = compare(positions[middle], key);
+			if (compare < 0 || (after && compare == 0)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private int compare(int position, int[] key) {
+		for (int k = 0; k < key.length; ++k) {
+			int id = columns[k][position];
+			if (id != key[k])
+				return id < key[k] ? -1 : 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Position in the source of the quad at the given index of the permutation.
+	 * @param index
+	 * @return
+	 */
+	int getPosition(int index) {
+		return positions[index];
+	}
+
+	int size() {
+		return positions.length;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
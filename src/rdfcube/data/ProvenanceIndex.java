@@ -0,0 +1,152 @@
+package rdfcube.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rdfcube.bitmap.CompressedBitmap;
+import rdfcube.types.Quadruple;
+
+/**
+ * Bitmap index from the provenance identifiers of a {@link DictionaryEncodedRDFCubeDataSource}
+ * to the positions of their quads. Provenance filters are evaluated as operations on the
+ * bitmaps (OR of the accepted identifiers, AND with other sets of positions, NOT as the
+ * complement within the source) before any quad is read. Every quad has a single provenance
+ * identifier, so the bitmaps together hold one position per quad: the index takes at most
+ * 2 bytes per quad plus a small constant (around 150 bytes) per identifier.
+ *
+ */
+public class ProvenanceIndex {
+
+	private TermDictionary dictionary;
+
+	/**
+	 * Positions of the quads of every provenance identifier, indexed by its term identifier
+	 */
+	private Map<Integer, CompressedBitmap> bitmaps;
+
+	private int size;
+
+	ProvenanceIndex(int[] provenances, int size, TermDictionary dictionary) {
+		this.dictionary = dictionary;
+		this.size = size;
+		bitmaps = new LinkedHashMap<>();
+		for (int position = 0; position < size; ++position) {
+			CompressedBitmap bitmap = bitmaps.get(provenances[position]);
+			if (bitmap == null) {
+				bitmap = new CompressedBitmap();
+				bitmaps.put(provenances[position], bitmap);
+			}
+			// Positions are added in increasing order, which appends to the last chunk
+			bitmap.add(position);
+		}
+	}
+
+	/**
+	 * Returns the positions of the quads with the given provenance identifier. The
+	 * returned set must not be modified.
+	 * @param provenanceId
+	 * @return
+	 */
+	public CompressedBitmap getPositions(String provenanceId) {
+		CompressedBitmap bitmap = bitmaps.get(dictionary.lookup(provenanceId));
+		return bitmap == null ? new CompressedBitmap() : bitmap;
+	}
+
+	/**
+	 * Returns the positions of the quads whose provenance identifier is any of the given ones.
+	 * @param provenanceIds
+	 * @return
+	 */
+	public CompressedBitmap anyOf(Collection<String> provenanceIds) {
+		List<CompressedBitmap> selected = new ArrayList<>(provenanceIds.size());
+		for (String provenanceId : provenanceIds) {
+			selected.add(getPositions(provenanceId));
+		}
+
+		return CompressedBitmap.or(selected);
+	}
+
+	/**
+	 * Returns the positions of the quads whose provenance identifier is none of the given ones.
+	 * @param provenanceIds
+	 * @return
+	 */
+	public CompressedBitmap noneOf(Collection<String> provenanceIds) {
+		return not(anyOf(provenanceIds));
+	}
+
+	/**
+	 * Returns the positions of the source that are not in the given set.
+	 * @param positions
+	 * @return
+	 */
+	public CompressedBitmap not(CompressedBitmap positions) {
+		return CompressedBitmap.range(0, size).andNot(positions);
+	}
+
+	/**
+	 * Returns the provenance identifiers of the source.
+	 * @return
+	 */
+	public Set<String> getProvenanceIds() {
+		Set<String> result = new LinkedHashSet<>();
+		for (Integer provenanceId : bitmaps.keySet()) {
+			result.add(dictionary.decode(provenanceId));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Number of quads indexed.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of bytes used by the bitmaps and the map (approximately).
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		// Entry, boxed key and table slot of every identifier
+		long usage = 64L * bitmaps.size();
+		for (CompressedBitmap bitmap : bitmaps.values()) {
+			usage += bitmap.getMemoryUsage();
+		}
+
+		return usage;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + bitmaps.size() + " provenance identifiers, " + size + " quads, " + getMemoryUsage() + " bytes]";
+	}
+
+	/**
+	 * Usage: cube-file provenance-id1,provenance-id2,... [subject]
+	 * Prints the quads with any of the provenance identifiers (and the given subject).
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		DictionaryEncodedRDFCubeDataSource source = DictionaryEncodedRDFCubeDataSource.build(args[0]);
+		ProvenanceIndex index = source.getProvenanceIndex();
+		System.out.println(index);
+		CompressedBitmap positions = index.anyOf(Arrays.asList(args[1].split(",")));
+		String subject = args.length > 2 ? args[2] : null;
+		for (Quadruple<String, String, String, String> quad :
+			source.match(new Quadruple<String, String, String, String>(subject, null, null, null), positions)) {
+			System.out.println(quad);
+		}
+	}
+
+}
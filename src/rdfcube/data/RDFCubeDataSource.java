@@ -1,7 +1,93 @@
 package rdfcube.data;
 
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 import rdfcube.types.Quadruple;
 
 public interface RDFCubeDataSource extends Iterable<Quadruple<String, String, String, String>> {
 
+	/**
+	 * Returns the quads matching the pattern. The default implementation scans the whole
+	 * source; sources with indexes override it.
+	 * @param pattern Quad pattern where null components are variables
+	 * @return
+	 */
+	default Iterable<Quadruple<String, String, String, String>> match(final Quadruple<String, String, String, String> pattern) {
+		return filter(this, pattern);
+	}
+
+	/**
+	 * Returns the quads of the collection that match the pattern. The underlying iterator is
+	 * only advanced by hasNext(), so a quad returned by next() stays valid until the following
+	 * call to hasNext(), even if the collection reuses a single flyweight quad.
+	 * @param quads
+	 * @param pattern
+	 * @return
+	 */
+	static Iterable<Quadruple<String, String, String, String>> filter(final Iterable<Quadruple<String, String, String, String>> quads,
+			final Quadruple<String, String, String, String> pattern) {
+		return new Iterable<Quadruple<String, String, String, String>>() {
+
+			@Override
+			public Iterator<Quadruple<String, String, String, String>> iterator() {
+				final Iterator<Quadruple<String, String, String, String>> iterator = quads.iterator();
+				return new Iterator<Quadruple<String, String, String, String>>() {
+
+					Quadruple<String, String, String, String> nextQuad = null;
+
+					/**
+					 * True if nextQuad holds the next matching quad (or null at the end)
+					 */
+					boolean advanced = false;
+
+					private Quadruple<String, String, String, String> advance() {
+						while (iterator.hasNext()) {
+							Quadruple<String, String, String, String> quad = iterator.next();
+							if (matches(pattern, quad))
+								return quad;
+						}
+
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						if (!advanced) {
+							nextQuad = advance();
+							advanced = true;
+						}
+
+						return nextQuad != null;
+					}
+
+					@Override
+					public Quadruple<String, String, String, String> next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+
+						advanced = false;
+						return nextQuad;
+					}
+
+				};
+			}
+
+		};
+	}
+
+	/**
+	 * Returns true if the quad matches the pattern. Null components of the pattern match any value.
+	 * @param pattern
+	 * @param quad
+	 * @return
+	 */
+	static boolean matches(Quadruple<String, String, String, String> pattern,
+			Quadruple<String, String, String, String> quad) {
+		return (pattern.getFirst() == null || pattern.getFirst().equals(quad.getFirst()))
+				&& (pattern.getSecond() == null || pattern.getSecond().equals(quad.getSecond()))
+				&& (pattern.getThird() == null || pattern.getThird().equals(quad.getThird()))
+				&& (pattern.getFourth() == null || pattern.getFourth().equals(quad.getFourth()));
+	}
+
 }
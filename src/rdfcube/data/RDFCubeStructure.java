@@ -2,6 +2,8 @@ package rdfcube.data;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -193,8 +195,62 @@ public class RDFCubeStructure {
 		return cubeRelations.contains(relation);
 	}
 	
+	/**
+	 * Returns true if the type is the domain of some relation and all the relations
+	 * with that domain are metadata relations, e.g., the levels of a dimension that
+	 * have no attributes.
+	 * @param domain
+	 * @return
+	 */
+	public boolean isMetadataDomain(String domain) {
+		boolean found = false;
+		for (Map.Entry<String, String> entry : domains.entrySet()) {
+			if (entry.getValue().equals(domain)) {
+				if (!isMetadataRelation(entry.getKey()))
+					return false;
+
+				found = true;
+			}
+		}
+
+		return found;
+	}
+	
 	public boolean isFactualRelation(String relation) {
-		return factualRelation.contains(relation);
+		return factualRelations.contains(relation);
+	}
+	
+	public boolean isMeasure(String relation) {
+		return measures.contains(relation);
+	}
+	
+	public Set<String> getMeasures() {
+		return Collections.unmodifiableSet(measures);
+	}
+	
+	public Set<String> getFactualRelations() {
+		return Collections.unmodifiableSet(factualRelations);
+	}
+	
+	public Set<String> getCubeRelations() {
+		return Collections.unmodifiableSet(cubeRelations);
+	}
+	
+	/**
+	 * Returns the dimensions of the cube indexed by name.
+	 * @return
+	 */
+	public Map<String, DimensionHierarchy> getDimensions() {
+		return Collections.unmodifiableMap(dimensions);
+	}
+	
+	/**
+	 * Returns the attributes defined for the given level.
+	 * @param level
+	 * @return
+	 */
+	public Collection<String> getLevelAttributes(String level) {
+		return Collections.unmodifiableCollection(levelAttributes.get(level));
 	}
 
 }
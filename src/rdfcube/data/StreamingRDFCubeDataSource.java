@@ -0,0 +1,174 @@
+package rdfcube.data;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.univocity.parsers.tsv.TsvParser;
+import com.univocity.parsers.tsv.TsvParserSettings;
+
+import rdfcube.metrics.PipelineMetrics;
+import rdfcube.types.Quadruple;
+
+/**
+ * File-backed source that never loads the cube in memory. Every call to {@link #iterator()}
+ * parses the TSV file again from the beginning, hence iterating requires constant memory
+ * regardless of the size of the cube. Contrary to the in-memory sources, duplicate
+ * quads in the file are not discarded.
+ *
+ * The file stays open until an iterator reaches its end. Callers that stop iterating
+ * earlier must close the iterator, or close the source to release all its iterators.
+ *
+ */
+public class StreamingRDFCubeDataSource implements RDFCubeDataSource, Closeable {
+
+	private File file;
+
+	/**
+	 * Iterators that have not reached the end of the file nor been closed
+	 */
+	private Set<QuadIterator> openIterators;
+
+	private StreamingRDFCubeDataSource(File file) {
+		this.file = file;
+		this.openIterators = new HashSet<>();
+	}
+
+	/**
+	 * It builds a streaming source on top of the given file. The method assumes the file is given as
+	 * quadruples in TSV format: subject relation object provenance-id
+	 * @param filePath
+	 * @return
+	 * @throws FileNotFoundException if the file does not exist or cannot be read.
+	 */
+	public static StreamingRDFCubeDataSource build(String filePath) throws FileNotFoundException {
+		File file = new File(filePath);
+		if (!file.isFile() || !file.canRead())
+			throw new FileNotFoundException(filePath);
+
+		return new StreamingRDFCubeDataSource(file);
+	}
+
+	/**
+	 * Returns an iterator over the quads of the file. The file is closed when the iterator
+	 * reaches its end; callers that stop earlier must close the iterator, which is
+	 * {@link Closeable}, or close the source.
+	 */
+	@Override
+	public QuadIterator iterator() {
+		BufferedReader reader;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open " + file, e);
+		}
+
+		return new QuadIterator(reader);
+	}
+
+	/**
+	 * Closes the iterators that have not reached the end of the file yet.
+	 */
+	@Override
+	public void close() {
+		List<QuadIterator> iterators;
+		synchronized (openIterators) {
+			iterators = new ArrayList<>(openIterators);
+		}
+		for (QuadIterator iterator : iterators) {
+			iterator.close();
+		}
+	}
+
+	/**
+	 * Number of iterators whose file is still open.
+	 * @return
+	 */
+	public int getOpenIterators() {
+		synchronized (openIterators) {
+			return openIterators.size();
+		}
+	}
+
+	/**
+	 * Iterator over the rows of the file. It closes the file once the last row is read,
+	 * or when {@link #close()} is called.
+	 *
+	 */
+	public class QuadIterator implements Iterator<Quadruple<String, String, String, String>>, Closeable {
+
+		private TsvParser parser;
+
+		private String[] nextRow;
+
+		private QuadIterator(BufferedReader reader) {
+			TsvParserSettings settings = new TsvParserSettings();
+			settings.getFormat().setLineSeparator("\n");
+			parser = new TsvParser(settings);
+			try {
+				parser.beginParsing(reader);
+				nextRow = parser.parseNext();
+			} catch (RuntimeException e) {
+				try {
+					reader.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+				throw e;
+			}
+			synchronized (openIterators) {
+				openIterators.add(this);
+			}
+			if (nextRow == null)
+				close();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextRow != null;
+		}
+
+		@Override
+		public Quadruple<String, String, String, String> next() {
+			if (nextRow == null)
+				throw new NoSuchElementException();
+
+			String[] row = nextRow;
+			nextRow = parser.parseNext();
+			if (nextRow == null)
+				close();
+			PipelineMetrics.get().quadIngested();
+			return new Quadruple<>(row[0], row[1], row[2], row[3]);
+		}
+
+		/**
+		 * Stops parsing and closes the file. Further calls to hasNext() return false.
+		 */
+		@Override
+		public void close() {
+			nextRow = null;
+			synchronized (openIterators) {
+				if (!openIterators.remove(this))
+					return;
+			}
+			parser.stopParsing();
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return "[" + file.getPath() + "]";
+	}
+
+}
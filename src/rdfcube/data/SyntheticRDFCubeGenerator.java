@@ -0,0 +1,359 @@
+package rdfcube.data;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.DimensionHierarchy;
+
+/**
+ * Generates random cubes that follow a given structure. Every observation has a type quad,
+ * one quad per dimension linking it to a member of the finest level of the dimension and
+ * one quad per measure. The members of each level roll up to the members of the next level
+ * and have a value for each attribute of their level. Dimension members and provenance
+ * identifiers are drawn from Zipfian distributions.
+ * The observations are split in as many ranges as threads; each thread writes its range to
+ * a part file and the parts are concatenated at the end, so the output only depends on
+ * the seed and the number of threads.
+ *
+ */
+public class SyntheticRDFCubeGenerator {
+
+	private static final String typeRelation = "rdf:type";
+
+	private static final String integerType = "xsd:integer";
+
+	private static final String defaultObservationType = "Observation";
+
+	private RDFCubeStructure structure;
+
+	private long nObservations;
+
+	/**
+	 * Number of members of the finest level of each dimension
+	 */
+	private int baseCardinality;
+
+	/**
+	 * Number of members of a level that roll up to the same member of the next level
+	 */
+	private int rollupFanout;
+
+	/**
+	 * Exponent of the Zipfian distributions, 0 means uniform
+	 */
+	private double skew;
+
+	private int nProvenanceIds;
+
+	private int nThreads;
+
+	private long seed;
+
+	public SyntheticRDFCubeGenerator(RDFCubeStructure structure) {
+		this.structure = structure;
+		nObservations = 1000;
+		baseCardinality = 1000;
+		rollupFanout = 10;
+		skew = 1.0;
+		nProvenanceIds = 4;
+		nThreads = Runtime.getRuntime().availableProcessors();
+		seed = 0;
+	}
+
+	public void setObservations(long nObservations) {
+		this.nObservations = nObservations;
+	}
+
+	public void setBaseCardinality(int baseCardinality) {
+		this.baseCardinality = baseCardinality;
+	}
+
+	public void setRollupFanout(int rollupFanout) {
+		this.rollupFanout = rollupFanout;
+	}
+
+	public void setSkew(double skew) {
+		this.skew = skew;
+	}
+
+	public void setProvenanceIds(int nProvenanceIds) {
+		this.nProvenanceIds = nProvenanceIds;
+	}
+
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * A dimension as seen from the observations: its levels from the finest to the
+	 * coarsest and the number of members of each level.
+	 */
+	private static class DimensionPlan {
+
+		List<String> levels;
+
+		int[] cardinalities;
+
+		double[] baseLevelDistribution;
+
+	}
+
+	/**
+	 * Writes the cube in TSV format: subject relation object provenance-id
+	 * @param output
+	 * @throws IOException
+	 */
+	public void generate(File output) throws IOException {
+		final String observationType = getObservationType();
+		final List<DimensionPlan> dimensions = planDimensions(observationType);
+		final double[] provenanceDistribution = getZipfDistribution(nProvenanceIds);
+		final List<String> measures = new ArrayList<>(structure.getMeasures());
+
+		int nParts = (int)Math.max(1, Math.min(nThreads, nObservations));
+		List<File> parts = new ArrayList<>();
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < nParts; ++i) {
+			final int part = i;
+			final File partFile = new File(output.getPath() + ".part" + i);
+			final long first = nObservations * i / nParts;
+			final long last = nObservations * (i + 1) / nParts;
+			parts.add(partFile);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					Random random = new Random(seed * 31 + part);
+					try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(partFile), StandardCharsets.UTF_8), 1 << 16)) {
+						if (part == 0) {
+							writeMembers(dimensions, provenanceDistribution, random, writer);
+						}
+						writeObservations(first, last, observationType, dimensions, measures,
+								provenanceDistribution, random, writer);
+					}
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nParts);
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Cube generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Cube generation failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		concatenate(parts, output);
+	}
+
+	/**
+	 * The type of the observations is the domain of the measures.
+	 * @return
+	 */
+	private String getObservationType() {
+		for (String measure : structure.getMeasures()) {
+			String domain = structure.getSignature(measure).getLeft();
+			if (domain != null)
+				return domain;
+		}
+
+		return defaultObservationType;
+	}
+
+	/**
+	 * Selects the dimensions whose finest level describes observations and computes
+	 * the cardinality of their levels.
+	 */
+	private List<DimensionPlan> planDimensions(String observationType) {
+		List<String> names = new ArrayList<>(structure.getDimensions().keySet());
+		Collections.sort(names);
+		List<DimensionPlan> plans = new ArrayList<>();
+		for (String name : names) {
+			DimensionHierarchy dimension = structure.getDimensions().get(name);
+			List<String> levels = dimension.getLevels();
+			if (levels.isEmpty() || !observationType.equals(structure.getSignature(levels.get(0)).getLeft()))
+				continue;
+
+			DimensionPlan plan = new DimensionPlan();
+			plan.levels = levels;
+			plan.cardinalities = new int[levels.size()];
+			int cardinality = Math.max(1, baseCardinality);
+			for (int k = 0; k < levels.size(); ++k) {
+				plan.cardinalities[k] = cardinality;
+				cardinality = Math.max(1, cardinality / Math.max(1, rollupFanout));
+			}
+			plan.baseLevelDistribution = getZipfDistribution(plan.cardinalities[0]);
+			plans.add(plan);
+		}
+
+		return plans;
+	}
+
+	/**
+	 * Writes the type of the members of the finest levels, the roll-up quads and the attributes.
+	 */
+	private void writeMembers(List<DimensionPlan> dimensions, double[] provenanceDistribution,
+			Random random, Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (DimensionPlan dimension : dimensions) {
+			for (int k = 0; k < dimension.levels.size(); ++k) {
+				String level = dimension.levels.get(k);
+				String memberType = structure.getSignature(level).getRight();
+				for (int member = 0; member < dimension.cardinalities[k]; ++member) {
+					String memberIRI = getMemberIRI(level, member);
+					if (k == 0 && memberType != null) {
+						writeQuad(memberIRI, typeRelation, memberType, provenanceDistribution, random, line, writer);
+					}
+					if (k + 1 < dimension.levels.size()) {
+						String nextLevel = dimension.levels.get(k + 1);
+						long parent = (long)member * dimension.cardinalities[k + 1] / dimension.cardinalities[k];
+						writeQuad(memberIRI, nextLevel, getMemberIRI(nextLevel, parent), provenanceDistribution,
+								random, line, writer);
+					}
+					for (String attribute : structure.getLevelAttributes(level)) {
+						writeQuad(memberIRI, attribute, getLiteral(attribute, member, random), provenanceDistribution,
+								random, line, writer);
+					}
+				}
+			}
+		}
+	}
+
+	private void writeObservations(long first, long last, String observationType, List<DimensionPlan> dimensions,
+			List<String> measures, double[] provenanceDistribution, Random random, Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (long observation = first; observation < last; ++observation) {
+			String observationIRI = ":obs" + observation;
+			writeQuad(observationIRI, typeRelation, observationType, provenanceDistribution, random, line, writer);
+			for (DimensionPlan dimension : dimensions) {
+				String level = dimension.levels.get(0);
+				int member = sample(dimension.baseLevelDistribution, random);
+				writeQuad(observationIRI, level, getMemberIRI(level, member), provenanceDistribution,
+						random, line, writer);
+			}
+			for (String measure : measures) {
+				writeQuad(observationIRI, measure, Integer.toString(random.nextInt(100)), provenanceDistribution,
+						random, line, writer);
+			}
+		}
+	}
+
+	private void writeQuad(String subject, String relation, String object, double[] provenanceDistribution,
+			Random random, StringBuilder line, Writer writer) throws IOException {
+		line.setLength(0);
+		line.append(subject).append('\t').append(relation).append('\t').append(object)
+			.append("\t:source").append(sample(provenanceDistribution, random)).append('\n');
+		writer.append(line);
+	}
+
+	private static String getMemberIRI(String level, long member) {
+		return ":" + getLocalName(level) + "_" + member;
+	}
+
+	private String getLiteral(String attribute, int member, Random random) {
+		Pair<String, String> signature = structure.getSignature(attribute);
+		if (integerType.equals(signature.getRight()))
+			return Integer.toString(1 + random.nextInt(1000000));
+
+		return getLocalName(attribute) + " " + member;
+	}
+
+	private static String getLocalName(String iri) {
+		int separator = iri.lastIndexOf(':');
+		return separator < 0 ? iri : iri.substring(separator + 1);
+	}
+
+	/**
+	 * Returns the cumulative distribution of a Zipfian distribution over n elements.
+	 */
+	private double[] getZipfDistribution(int n) {
+		double[] cumulative = new double[Math.max(1, n)];
+		double sum = 0.0;
+		for (int i = 0; i < cumulative.length; ++i) {
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < cumulative.length; ++i) {
+			cumulative[i] /= sum;
+		}
+
+		return cumulative;
+	}
+
+	private static int sample(double[] cumulative, Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		index = index < 0 ? -index - 1 : index;
+		return Math.min(index, cumulative.length - 1);
+	}
+
+	private static void concatenate(List<File> parts, File output) throws IOException {
+		try (FileOutputStream outputStream = new FileOutputStream(output);
+				FileChannel outputChannel = outputStream.getChannel()) {
+			for (File part : parts) {
+				try (FileInputStream inputStream = new FileInputStream(part);
+						FileChannel inputChannel = inputStream.getChannel()) {
+					long position = 0;
+					long size = inputChannel.size();
+					while (position < size) {
+						position += inputChannel.transferTo(position, size - position, outputChannel);
+					}
+				}
+				part.delete();
+			}
+		}
+	}
+
+	/**
+	 * Usage: schema-file output-file observations [base-cardinality] [skew] [provenance-ids] [threads] [seed]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		SyntheticRDFCubeGenerator generator = new SyntheticRDFCubeGenerator(RDFCubeStructure.build(args[0]));
+		generator.setObservations(Long.parseLong(args[2]));
+		if (args.length > 3)
+			generator.setBaseCardinality(Integer.parseInt(args[3]));
+		if (args.length > 4)
+			generator.setSkew(Double.parseDouble(args[4]));
+		if (args.length > 5)
+			generator.setProvenanceIds(Integer.parseInt(args[5]));
+		if (args.length > 6)
+			generator.setThreads(Integer.parseInt(args[6]));
+		if (args.length > 7)
+			generator.setSeed(Long.parseLong(args[7]));
+
+		long start = System.nanoTime();
+		generator.generate(new File(args[1]));
+		System.out.println("Cube written to " + args[1] + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+}
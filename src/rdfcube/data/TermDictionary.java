@@ -0,0 +1,141 @@
+package rdfcube.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bidirectional mapping between RDF terms (IRIs and literals) and dense integer
+ * identifiers. Identifiers are assigned in order of first appearance starting at 0.
+ * The null term is always mapped to {@link #NULL_ID}.
+ *
+ */
+public class TermDictionary {
+
+	/**
+	 * Identifier used for null (missing) terms.
+	 */
+	public static final int NULL_ID = -1;
+
+	/**
+	 * Rough per-entry overhead of a term: the String object and its array header,
+	 * the HashMap node, the boxed Integer and the reference in the reverse list.
+	 */
+	private static final int bytesPerEntryOverhead = 96;
+
+	private Map<String, Integer> term2Id;
+
+	private List<String> id2Term;
+
+	private long totalTermLength;
+
+	public TermDictionary() {
+		term2Id = new HashMap<>();
+		id2Term = new ArrayList<>();
+		totalTermLength = 0;
+	}
+
+	/**
+	 * Returns the identifier of the given term. If the term is not yet
+	 * in the dictionary, a new identifier is assigned to it.
+	 * @param term
+	 * @return
+	 */
+	public int encode(String term) {
+		if (term == null)
+			return NULL_ID;
+
+		Integer id = term2Id.get(term);
+		if (id == null) {
+			id = id2Term.size();
+			term2Id.put(term, id);
+			id2Term.add(term);
+			totalTermLength += term.length();
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the identifier of the given term or {@link #NULL_ID} if the
+	 * term is not in the dictionary. Unlike {@link #encode(String)}, it never
+	 * modifies the dictionary.
+	 * @param term
+	 * @return
+	 */
+	public int lookup(String term) {
+		if (term == null)
+			return NULL_ID;
+
+		Integer id = term2Id.get(term);
+		return id == null ? NULL_ID : id;
+	}
+
+	/**
+	 * Returns the term associated to the given identifier.
+	 * @param id
+	 * @return
+	 */
+	public String decode(int id) {
+		if (id == NULL_ID)
+			return null;
+
+		return id2Term.get(id);
+	}
+
+	public int size() {
+		return id2Term.size();
+	}
+
+	/**
+	 * Returns an estimation of the heap space (in bytes) used by the dictionary.
+	 * @return
+	 */
+	public long estimateMemoryUsage() {
+		return (long)id2Term.size() * bytesPerEntryOverhead + totalTermLength * 2;
+	}
+
+	/**
+	 * Writes the terms of the dictionary in identifier order. Every term is written as 
+	 * the length of its UTF-8 encoding followed by the encoded bytes.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(id2Term.size());
+		for (String term : id2Term) {
+			byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+	
+	/**
+	 * Reads a dictionary written with {@link #write(DataOutput)}.
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public static TermDictionary read(DataInput input) throws IOException {
+		TermDictionary dictionary = new TermDictionary();
+		int nTerms = input.readInt();
+		for (int i = 0; i < nTerms; ++i) {
+			byte[] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+			dictionary.encode(new String(bytes, StandardCharsets.UTF_8));
+		}
+		
+		return dictionary;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + id2Term.size() + " terms, ~" + estimateMemoryUsage() + " bytes]";
+	}
+
+}
@@ -0,0 +1,574 @@
+package rdfcube.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.univocity.parsers.tsv.TsvParser;
+import com.univocity.parsers.tsv.TsvParserSettings;
+
+import rdfcube.metrics.PipelineMetrics;
+import rdfcube.types.Quadruple;
+
+/**
+ * Loads a cube file in TSV format (subject relation object provenance-id) with three
+ * overlapping stages: a reader thread cuts the file in batches of lines, N parser threads
+ * split the lines into terms (interning them when the target keeps strings, or encoding them
+ * with a local dictionary per batch when it is dictionary-encoded), and the calling thread
+ * inserts the quads into the source. The stages communicate through bounded queues, so a slow
+ * stage blocks the ones before it instead of letting batches pile up in memory, and the reader
+ * stops issuing batches while too many are in flight. Batches are numbered and inserted in
+ * file order, hence the source is the same as the one built by the sequential build methods.
+ * Comment lines (starting with #) and empty lines are skipped; lines with fewer than four
+ * terms are ignored and counted in the statistics of the parser stage.
+ * <p>
+ * Every stage records its busy time and the time it waits on its queues; see
+ * {@link #getStatistics()}. The stage with the lowest throughput is the bottleneck.
+ *
+ */
+public class TsvIngestionPipeline {
+
+	public static final int defaultBatchSize = 4096;
+
+	/**
+	 * Batches that can wait in every queue per parser thread. It also bounds the batches
+	 * in flight, from the reader to their insertion, per parser thread.
+	 */
+	private static final int queueCapacityPerParser = 4;
+
+	private int nParsers;
+
+	private int batchSize;
+
+	private List<StageStatistics> statistics;
+
+	/**
+	 * Receives the parsed batches in file order.
+	 */
+	private interface BatchSink {
+
+		void add(Batch batch);
+
+	}
+
+	/**
+	 * Consecutive lines of the file and, once parsed, their quads.
+	 */
+	private static class Batch {
+
+		static final Batch end = new Batch(-1, 0);
+
+		long sequence;
+
+		String[] lines;
+
+		int nLines;
+
+		/**
+		 * Four terms per quad or, if the batch is encoded, the local dictionary of the batch
+		 */
+		String[] terms;
+
+		/**
+		 * Four local identifiers per quad if the batch is encoded, null otherwise
+		 */
+		int[] quads;
+
+		int nQuads;
+
+		Batch(long sequence, int capacity) {
+			this.sequence = sequence;
+			this.lines = new String[capacity];
+			this.nLines = 0;
+		}
+
+	}
+
+	/**
+	 * Counters of one stage of the pipeline.
+	 */
+	public static class StageStatistics {
+
+		private String name;
+
+		private int nThreads;
+
+		private LongAdder items = new LongAdder();
+
+		private LongAdder busyNanos = new LongAdder();
+
+		private LongAdder waitNanos = new LongAdder();
+
+		private LongAdder ignored = new LongAdder();
+
+		StageStatistics(String name, int nThreads) {
+			this.name = name;
+			this.nThreads = nThreads;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getThreads() {
+			return nThreads;
+		}
+
+		/**
+		 * Number of lines (reader) or quads (parsers and index) processed.
+		 * @return
+		 */
+		public long getItems() {
+			return items.sum();
+		}
+
+		/**
+		 * Number of malformed lines (fewer than four terms) the stage ignored. Only the parsers
+		 * ignore lines.
+		 * @return
+		 */
+		public long getIgnoredItems() {
+			return ignored.sum();
+		}
+
+		/**
+		 * Time spent working, summed over the threads of the stage.
+		 * @return
+		 */
+		public long getBusyNanos() {
+			return busyNanos.sum();
+		}
+
+		/**
+		 * Time spent waiting on the input or output queue, summed over the threads of the stage.
+		 * @return
+		 */
+		public long getWaitNanos() {
+			return waitNanos.sum();
+		}
+
+		/**
+		 * Items per second the stage can sustain with all its threads busy.
+		 * @return
+		 */
+		public double getThroughput() {
+			long busy = getBusyNanos();
+			return busy == 0 ? 0.0 : getItems() * 1e9 * nThreads / busy;
+		}
+
+		/**
+		 * Fraction of the time the threads of the stage were busy.
+		 * @return
+		 */
+		public double getUtilization() {
+			long total = getBusyNanos() + getWaitNanos();
+			return total == 0 ? 0.0 : (double)getBusyNanos() / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%d threads): %d items, %.0f items/s, %.0f%% busy", name, nThreads,
+					getItems(), getThroughput(), 100 * getUtilization())
+					+ (getIgnoredItems() > 0 ? ", " + getIgnoredItems() + " malformed lines ignored" : "");
+		}
+
+	}
+
+	/**
+	 * @param nParsers Number of parser threads
+	 * @param batchSize Number of lines per batch
+	 */
+	public TsvIngestionPipeline(int nParsers, int batchSize) {
+		if (nParsers < 1 || batchSize < 1)
+			throw new IllegalArgumentException("The number of parsers and the batch size must be positive");
+
+		this.nParsers = nParsers;
+		this.batchSize = batchSize;
+		this.statistics = new ArrayList<>();
+	}
+
+	public TsvIngestionPipeline() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() - 2), defaultBatchSize);
+	}
+
+	/**
+	 * Builds an in-memory source. Equal terms share a single string.
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public InMemoryRDFCubeDataSource loadInMemory(String filePath) throws IOException {
+		final InMemoryRDFCubeDataSource source = new InMemoryRDFCubeDataSource();
+		run(filePath, new BatchSink() {
+			@Override
+			public void add(Batch batch) {
+				String[] terms = batch.terms;
+				for (int i = 0; i < 4 * batch.nQuads; i += 4) {
+					source.add(new Quadruple<>(terms[i], terms[i + 1], terms[i + 2], terms[i + 3]));
+					PipelineMetrics.get().quadIngested();
+				}
+			}
+		}, false);
+
+		return source;
+	}
+
+	/**
+	 * Builds a dictionary-encoded source. The parsers encode every batch with a local dictionary,
+	 * so the index stage looks up every distinct term of a batch once in the dictionary of the
+	 * source instead of every term of every quad.
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public DictionaryEncodedRDFCubeDataSource loadDictionaryEncoded(String filePath) throws IOException {
+		final DictionaryEncodedRDFCubeDataSource source = new DictionaryEncodedRDFCubeDataSource();
+		run(filePath, new BatchSink() {
+			@Override
+			public void add(Batch batch) {
+				TermDictionary dictionary = source.getDictionary();
+				int[] ids = new int[batch.terms.length];
+				for (int local = 0; local < ids.length; ++local) {
+					ids[local] = dictionary.encode(batch.terms[local]);
+				}
+				int[] quads = batch.quads;
+				for (int i = 0; i < 4 * batch.nQuads; i += 4) {
+					source.add(global(ids, quads[i]), global(ids, quads[i + 1]), global(ids, quads[i + 2]), global(ids, quads[i + 3]));
+					PipelineMetrics.get().quadIngested();
+				}
+			}
+		}, true);
+
+		return source;
+	}
+
+	private static int global(int[] ids, int local) {
+		return local == TermDictionary.NULL_ID ? TermDictionary.NULL_ID : ids[local];
+	}
+
+	/**
+	 * Returns the statistics of the reader, parser and index stages of the last load.
+	 * @return
+	 */
+	public List<StageStatistics> getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Runs the pipeline. If a stage fails, the others keep draining their queues so that
+	 * no thread stays blocked, and the first failure is thrown at the end.
+	 * @param filePath
+	 * @param sink
+	 * @param encodeTerms Whether the parsers encode the batches with local dictionaries instead of
+	 * replacing equal terms by a single string
+	 * @throws IOException
+	 */
+	private void run(String filePath, BatchSink sink, final boolean encodeTerms) throws IOException {
+		final BlockingQueue<Batch> lines = new ArrayBlockingQueue<>(queueCapacityPerParser * nParsers);
+		final BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(queueCapacityPerParser * nParsers);
+		// Batches read but not inserted yet, including those waiting for their turn in the index stage
+		final Semaphore inFlight = new Semaphore(queueCapacityPerParser * nParsers);
+		final ConcurrentMap<String, String> terms = encodeTerms ? null : new ConcurrentHashMap<String, String>();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final StageStatistics readerStatistics = new StageStatistics("reader", 1);
+		final StageStatistics parserStatistics = new StageStatistics("parser", nParsers);
+		StageStatistics indexStatistics = new StageStatistics("index", 1);
+		statistics = Arrays.asList(readerStatistics, parserStatistics, indexStatistics);
+
+		final BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8);
+		ExecutorService executor = Executors.newFixedThreadPool(nParsers + 1);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					read(reader, lines, inFlight, failure, readerStatistics);
+					return null;
+				}
+			}));
+			for (int i = 0; i < nParsers; ++i) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						parse(lines, parsed, inFlight, terms, encodeTerms, failure, parserStatistics);
+						return null;
+					}
+				}));
+			}
+			index(parsed, inFlight, sink, failure, indexStatistics);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The ingestion of " + filePath + " was interrupted", e);
+		} catch (ExecutionException e) {
+			failure.compareAndSet(null, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			reader.close();
+		}
+
+		Throwable cause = failure.get();
+		if (cause instanceof IOException)
+			throw (IOException)cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException)cause;
+		if (cause instanceof Error)
+			throw (Error)cause;
+	}
+
+	private void read(BufferedReader reader, BlockingQueue<Batch> lines, Semaphore inFlight,
+			AtomicReference<Throwable> failure, StageStatistics statistics) throws InterruptedException {
+		long start = System.nanoTime();
+		long waiting = 0;
+		try {
+			long sequence = 0;
+			Batch batch = new Batch(sequence++, batchSize);
+			String line;
+			while (failure.get() == null && (line = reader.readLine()) != null) {
+				batch.lines[batch.nLines++] = line;
+				if (batch.nLines == batchSize) {
+					waiting += acquire(inFlight);
+					waiting += put(lines, batch);
+					statistics.items.add(batch.nLines);
+					batch = new Batch(sequence++, batchSize);
+				}
+			}
+			if (batch.nLines > 0) {
+				waiting += acquire(inFlight);
+				waiting += put(lines, batch);
+				statistics.items.add(batch.nLines);
+			}
+		} catch (IOException | RuntimeException e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			// One end marker per parser
+			for (int i = 0; i < nParsers; ++i) {
+				waiting += put(lines, Batch.end);
+			}
+			statistics.waitNanos.add(waiting);
+			statistics.busyNanos.add(System.nanoTime() - start - waiting);
+		}
+	}
+
+	private void parse(BlockingQueue<Batch> lines, BlockingQueue<Batch> parsed, Semaphore inFlight,
+			ConcurrentMap<String, String> terms, boolean encodeTerms, AtomicReference<Throwable> failure,
+			StageStatistics statistics) throws InterruptedException {
+		TsvParserSettings settings = new TsvParserSettings();
+		settings.getFormat().setLineSeparator("\n");
+		TsvParser parser = new TsvParser(settings);
+		long start = System.nanoTime();
+		long waiting = 0;
+		try {
+			while (true) {
+				long waitStart = System.nanoTime();
+				Batch batch = lines.take();
+				waiting += System.nanoTime() - waitStart;
+				if (batch == Batch.end)
+					break;
+
+				// After a failure the batches are only drained
+				if (failure.get() != null) {
+					inFlight.release();
+					continue;
+				}
+
+				try {
+					if (encodeTerms) {
+						encodeBatch(parser, batch, statistics);
+					} else {
+						parseBatch(parser, batch, terms, statistics);
+					}
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+					inFlight.release();
+					continue;
+				}
+				statistics.items.add(batch.nQuads);
+				waiting += put(parsed, batch);
+			}
+		} finally {
+			waiting += put(parsed, Batch.end);
+			statistics.waitNanos.add(waiting);
+			statistics.busyNanos.add(System.nanoTime() - start - waiting);
+		}
+	}
+
+	/**
+	 * Returns the terms of a line, or null if the line is empty, a comment or malformed.
+	 * Malformed lines are counted in the statistics.
+	 */
+	private static String[] parseLine(TsvParser parser, String line, StageStatistics statistics) {
+		// The parser of the sequential loaders skips comments, parseLine does not
+		if (line.isEmpty() || line.charAt(0) == '#')
+			return null;
+
+		String[] row = parser.parseLine(line);
+		if (row == null || row.length < 4) {
+			statistics.ignored.increment();
+			return null;
+		}
+
+		return row;
+	}
+
+	private static void parseBatch(TsvParser parser, Batch batch, ConcurrentMap<String, String> terms,
+			StageStatistics statistics) {
+		batch.terms = new String[4 * batch.nLines];
+		batch.nQuads = 0;
+		for (int i = 0; i < batch.nLines; ++i) {
+			String[] row = parseLine(parser, batch.lines[i], statistics);
+			if (row == null)
+				continue;
+
+			for (int k = 0; k < 4; ++k) {
+				batch.terms[4 * batch.nQuads + k] = intern(terms, row[k]);
+			}
+			++batch.nQuads;
+		}
+		batch.lines = null;
+	}
+
+	/**
+	 * Parses a batch into local identifiers, numbered by first occurrence in the batch.
+	 */
+	private static void encodeBatch(TsvParser parser, Batch batch, StageStatistics statistics) {
+		Map<String, Integer> localIds = new HashMap<>();
+		List<String> localTerms = new ArrayList<>();
+		batch.quads = new int[4 * batch.nLines];
+		batch.nQuads = 0;
+		for (int i = 0; i < batch.nLines; ++i) {
+			String[] row = parseLine(parser, batch.lines[i], statistics);
+			if (row == null)
+				continue;
+
+			for (int k = 0; k < 4; ++k) {
+				int local = TermDictionary.NULL_ID;
+				if (row[k] != null) {
+					Integer id = localIds.get(row[k]);
+					if (id == null) {
+						id = localTerms.size();
+						localIds.put(row[k], id);
+						localTerms.add(row[k]);
+					}
+					local = id;
+				}
+				batch.quads[4 * batch.nQuads + k] = local;
+			}
+			++batch.nQuads;
+		}
+		batch.terms = localTerms.toArray(new String[localTerms.size()]);
+		batch.lines = null;
+	}
+
+	private static String intern(ConcurrentMap<String, String> terms, String term) {
+		if (term == null)
+			return null;
+
+		String existing = terms.putIfAbsent(term, term);
+		return existing == null ? term : existing;
+	}
+
+	/**
+	 * Inserts the batches in the order of their sequence numbers. Batches that arrive early
+	 * wait in a buffer, which holds fewer batches than the permits of the in-flight semaphore:
+	 * the reader does not issue a batch until one is inserted or dropped. The batches of a
+	 * file are issued in order, so the expected one is always in flight and the index stage
+	 * never stops taking batches.
+	 */
+	private void index(BlockingQueue<Batch> parsed, Semaphore inFlight, BatchSink sink,
+			AtomicReference<Throwable> failure, StageStatistics statistics) throws InterruptedException {
+		long start = System.nanoTime();
+		long waiting = 0;
+		Map<Long, Batch> early = new HashMap<>();
+		long expected = 0;
+		int finishedParsers = 0;
+		while (finishedParsers < nParsers) {
+			long waitStart = System.nanoTime();
+			Batch batch = parsed.take();
+			waiting += System.nanoTime() - waitStart;
+			if (batch == Batch.end) {
+				++finishedParsers;
+				continue;
+			}
+			if (failure.get() != null) {
+				inFlight.release();
+				continue;
+			}
+
+			early.put(batch.sequence, batch);
+			while ((batch = early.remove(expected)) != null) {
+				try {
+					sink.add(batch);
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+					// Waiting batches will never be inserted
+					inFlight.release(early.size() + 1);
+					early.clear();
+					break;
+				}
+				statistics.items.add(batch.nQuads);
+				++expected;
+				inFlight.release();
+			}
+		}
+		statistics.waitNanos.add(waiting);
+		statistics.busyNanos.add(System.nanoTime() - start - waiting);
+	}
+
+	/**
+	 * Acquires a permit and returns the time spent waiting for it.
+	 */
+	private static long acquire(Semaphore semaphore) throws InterruptedException {
+		long start = System.nanoTime();
+		semaphore.acquire();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Puts a batch in a queue and returns the time spent waiting for space.
+	 */
+	private static long put(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+		long start = System.nanoTime();
+		queue.put(batch);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Usage: cube-file [parser-threads] [batch-size]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		TsvIngestionPipeline pipeline = args.length > 1 ?
+				new TsvIngestionPipeline(Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : defaultBatchSize)
+				: new TsvIngestionPipeline();
+		long start = System.nanoTime();
+		DictionaryEncodedRDFCubeDataSource source = pipeline.loadDictionaryEncoded(args[0]);
+		System.out.println(source + " loaded in " + (System.nanoTime() - start) / 1000000 + " ms");
+		for (StageStatistics stage : pipeline.getStatistics()) {
+			System.out.println(stage);
+		}
+	}
+
+}
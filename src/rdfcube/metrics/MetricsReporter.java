@@ -0,0 +1,85 @@
+package rdfcube.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints the pipeline metrics along with the ingestion and registration
+ * rates since the previous report. The reporting thread is a daemon thread.
+ *
+ */
+public class MetricsReporter implements AutoCloseable {
+
+	private PipelineMetrics metrics;
+
+	private PrintStream output;
+
+	private ScheduledExecutorService scheduler;
+
+	private long lastTime;
+
+	private long lastQuadsIngested;
+
+	private long lastTuplesRegistered;
+
+	public MetricsReporter(PrintStream output) {
+		this.metrics = PipelineMetrics.get();
+		this.output = output;
+	}
+
+	/**
+	 * Starts printing the metrics with the given period.
+	 * @param period
+	 * @param unit
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (scheduler != null)
+			throw new IllegalStateException("The reporter has already been started");
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "rdfcube-metrics-reporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		lastTime = System.nanoTime();
+		lastQuadsIngested = metrics.getQuadsIngested();
+		lastTuplesRegistered = metrics.getTuplesRegistered();
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Prints the current values of the metrics and the rates since the last report.
+	 */
+	public synchronized void report() {
+		long now = System.nanoTime();
+		long quadsIngested = metrics.getQuadsIngested();
+		long tuplesRegistered = metrics.getTuplesRegistered();
+		double seconds = Math.max(1, now - lastTime) / 1e9;
+		output.println("[metrics] " + metrics
+				+ String.format(", ingestion: %.0f quads/s, registration: %.0f quads/s",
+						(quadsIngested - lastQuadsIngested) / seconds, (tuplesRegistered - lastTuplesRegistered) / seconds));
+		lastTime = now;
+		lastQuadsIngested = quadsIngested;
+		lastTuplesRegistered = tuplesRegistered;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+}
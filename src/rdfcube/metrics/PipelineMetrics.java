@@ -0,0 +1,173 @@
+package rdfcube.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the lattice construction and fragment selection pipeline. The counters are
+ * {@link LongAdder}s, so updating them from the hot paths costs little even under contention.
+ * There is a single instance per JVM, which can be exposed through JMX with {@link #registerMBean()}
+ * and dumped periodically with a {@link MetricsReporter}.
+ *
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+	public static final String objectName = "rdfcube:type=PipelineMetrics";
+
+	private static final PipelineMetrics instance = new PipelineMetrics();
+
+	/**
+	 * Quads read by the data sources
+	 */
+	private final LongAdder quadsIngested = new LongAdder();
+
+	/**
+	 * Quads registered in lattices
+	 */
+	private final LongAdder tuplesRegistered = new LongAdder();
+
+	private final LongAdder fragmentsCreated = new LongAdder();
+
+	private final LongAdder metadataLinkingRuns = new LongAdder();
+
+	private final LongAdder metadataLinkingNanos = new LongAdder();
+
+	private final LongAdder selections = new LongAdder();
+
+	private final LongAdder greedyIterations = new LongAdder();
+
+	private final LongAdder benefitEvaluations = new LongAdder();
+
+	/**
+	 * Triples selected by the fragment selectors
+	 */
+	private final LongAdder budgetConsumed = new LongAdder();
+
+	private PipelineMetrics() {}
+
+	public static PipelineMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * Registers the metrics in the platform MBean server. Calling it more than once has no effect.
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(instance, name);
+			}
+		} catch (JMException e) {
+			System.err.println("The pipeline metrics could not be registered in JMX");
+			e.printStackTrace();
+		}
+	}
+
+	public void quadIngested() {
+		quadsIngested.increment();
+	}
+
+	public void tupleRegistered() {
+		tuplesRegistered.increment();
+	}
+
+	public void fragmentCreated() {
+		fragmentsCreated.increment();
+	}
+
+	public void metadataLinkingDone(long nanos) {
+		metadataLinkingRuns.increment();
+		metadataLinkingNanos.add(nanos);
+	}
+
+	public void selectionDone(long budgetUsed) {
+		selections.increment();
+		budgetConsumed.add(budgetUsed);
+	}
+
+	public void greedyIteration() {
+		greedyIterations.increment();
+	}
+
+	public void benefitsEvaluated(long evaluations) {
+		benefitEvaluations.add(evaluations);
+	}
+
+	@Override
+	public long getQuadsIngested() {
+		return quadsIngested.sum();
+	}
+
+	@Override
+	public long getTuplesRegistered() {
+		return tuplesRegistered.sum();
+	}
+
+	@Override
+	public long getFragmentsCreated() {
+		return fragmentsCreated.sum();
+	}
+
+	@Override
+	public long getMetadataLinkingRuns() {
+		return metadataLinkingRuns.sum();
+	}
+
+	@Override
+	public long getMetadataLinkingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(metadataLinkingNanos.sum());
+	}
+
+	@Override
+	public long getSelections() {
+		return selections.sum();
+	}
+
+	@Override
+	public long getGreedyIterations() {
+		return greedyIterations.sum();
+	}
+
+	@Override
+	public long getBenefitEvaluations() {
+		return benefitEvaluations.sum();
+	}
+
+	@Override
+	public long getBudgetConsumed() {
+		return budgetConsumed.sum();
+	}
+
+	@Override
+	public void reset() {
+		quadsIngested.reset();
+		tuplesRegistered.reset();
+		fragmentsCreated.reset();
+		metadataLinkingRuns.reset();
+		metadataLinkingNanos.reset();
+		selections.reset();
+		greedyIterations.reset();
+		benefitEvaluations.reset();
+		budgetConsumed.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "quads ingested: " + getQuadsIngested()
+				+ ", tuples registered: " + getTuplesRegistered()
+				+ ", fragments created: " + getFragmentsCreated()
+				+ ", metadata linking: " + getMetadataLinkingRuns() + " runs in " + getMetadataLinkingMillis() + " ms"
+				+ ", selections: " + getSelections()
+				+ ", greedy iterations: " + getGreedyIterations()
+				+ ", benefit evaluations: " + getBenefitEvaluations()
+				+ ", budget consumed: " + getBudgetConsumed();
+	}
+
+}
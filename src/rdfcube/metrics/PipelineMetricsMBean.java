@@ -0,0 +1,29 @@
+package rdfcube.metrics;
+
+/**
+ * Management interface of {@link PipelineMetrics}.
+ *
+ */
+public interface PipelineMetricsMBean {
+
+	public long getQuadsIngested();
+
+	public long getTuplesRegistered();
+
+	public long getFragmentsCreated();
+
+	public long getMetadataLinkingRuns();
+
+	public long getMetadataLinkingMillis();
+
+	public long getSelections();
+
+	public long getGreedyIterations();
+
+	public long getBenefitEvaluations();
+
+	public long getBudgetConsumed();
+
+	public void reset();
+
+}
@@ -0,0 +1,657 @@
+package rdfcube.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.ExampleFragmentLatticeBuilder;
+import rdfcube.FragmentLattice;
+import rdfcube.RDFCubeFragment;
+import rdfcube.data.InMemoryRDFCubeDataSource;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.RDFCubeStructure;
+import rdfcube.storage.MaterializedFragmentStore;
+import rdfcube.types.Quadruple;
+
+/**
+ * Joins the quads of fragments, e.g., a data fragment with the metadata fragments recorded
+ * for it in the lattice (observation -> ip -> city -> country). The join keys follow from the
+ * signatures: a fragment whose range is the domain of another joins its objects with the
+ * subjects of the other one, and a fragment whose domain is the range of another joins its
+ * subjects with the objects of the other one.
+ * <p>
+ * A plan is a sequence of {@link JoinStep}s that extend rows of quads one quad at a time, so
+ * chains and stars are both expressed by choosing the quad of the row each step joins. Steps
+ * are pipelined: every step builds a hash table on its fragment and streams the rows of the
+ * previous step through it, so intermediate results are never stored. Only the first step
+ * joins two fragments; it builds the hash table on the smaller one, or sorts and merges both
+ * when they are large and of similar size, so that no hash table is built on a large input.
+ * Both sorted inputs are held in memory as (key, quad) pairs, hence sort-merge does not save
+ * memory over a hash table. Fragments are read from the store when they are materialized
+ * and from the data source otherwise.
+ *
+ */
+public class FragmentJoinEngine {
+
+	/**
+	 * Inputs up to this number of quads are always hashed
+	 */
+	public static final long defaultMaxHashBuildSize = 1 << 20;
+
+	private FragmentLattice lattice;
+
+	private RDFCubeStructure structure;
+
+	/**
+	 * Store of materialized fragments, may be null
+	 */
+	private MaterializedFragmentStore store;
+
+	private RDFCubeDataSource data;
+
+	private long maxHashBuildSize;
+
+	public FragmentJoinEngine(FragmentLattice lattice, MaterializedFragmentStore store, RDFCubeDataSource data) {
+		this.lattice = lattice;
+		this.structure = lattice.getStructure();
+		this.store = store;
+		this.data = data;
+		this.maxHashBuildSize = defaultMaxHashBuildSize;
+	}
+
+	/**
+	 * Sets the size under which the first join always builds a hash table on its smaller input.
+	 * @param maxHashBuildSize
+	 */
+	public void setMaxHashBuildSize(long maxHashBuildSize) {
+		this.maxHashBuildSize = maxHashBuildSize;
+	}
+
+	/**
+	 * Plans a chain where every fragment joins the previous one.
+	 * @param fragments
+	 * @return
+	 */
+	public List<JoinStep> planChain(List<RDFCubeFragment> fragments) {
+		List<JoinStep> steps = new ArrayList<>();
+		for (int i = 1; i < fragments.size(); ++i) {
+			JoinStep step = createStep(fragments.get(i - 1), i - 1, fragments.get(i));
+			if (step == null)
+				throw new IllegalArgumentException(fragments.get(i) + " does not join " + fragments.get(i - 1));
+
+			steps.add(step);
+		}
+		chooseAlgorithms(fragments.get(0), steps);
+
+		return steps;
+	}
+
+	/**
+	 * Plans a star where every arm joins the center.
+	 * @param center
+	 * @param arms
+	 * @return
+	 */
+	public List<JoinStep> planStar(RDFCubeFragment center, List<RDFCubeFragment> arms) {
+		List<JoinStep> steps = new ArrayList<>();
+		for (RDFCubeFragment arm : arms) {
+			JoinStep step = createStep(center, 0, arm);
+			if (step == null)
+				throw new IllegalArgumentException(arm + " does not join " + center);
+
+			steps.add(step);
+		}
+		chooseAlgorithms(center, steps);
+
+		return steps;
+	}
+
+	/**
+	 * Plans the join of a fragment with its metadata fragments and, up to the given number of
+	 * hops, with the metadata fragments joining those. Every hop joins the metadata fragments on
+	 * the subjects of a fragment (for the first hop, the metadata links of the lattice) and on
+	 * its objects, i.e., the next level of a dimension, so w:ip reaches w:city and then
+	 * w:country. Links that do not join the fragment directly (inherited from descendants
+	 * with other domains) are skipped.
+	 * @param fragment
+	 * @param maxHops
+	 * @return
+	 */
+	public List<JoinStep> planMetadataJoins(RDFCubeFragment fragment, int maxHops) {
+		List<JoinStep> steps = new ArrayList<>();
+		List<RDFCubeFragment> rowFragments = new ArrayList<>();
+		List<Integer> hops = new ArrayList<>();
+		Set<RDFCubeFragment> visited = new LinkedHashSet<>();
+		rowFragments.add(fragment);
+		hops.add(0);
+		visited.add(fragment);
+		for (int i = 0; i < rowFragments.size(); ++i) {
+			if (hops.get(i) >= maxHops)
+				continue;
+
+			RDFCubeFragment left = rowFragments.get(i);
+			Collection<RDFCubeFragment> candidates = new LinkedHashSet<>(i == 0 && !left.isMetadata() ?
+					lattice.getMetadataFragments(left) : lattice.getJoiningMetadataFragments(left));
+			candidates.addAll(lattice.getBroaderMetadataFragments(left));
+			for (RDFCubeFragment candidate : candidates) {
+				if (visited.contains(candidate))
+					continue;
+
+				JoinStep step = createStep(left, i, candidate);
+				if (step != null) {
+					steps.add(step);
+					rowFragments.add(candidate);
+					hops.add(hops.get(i) + 1);
+					visited.add(candidate);
+				}
+			}
+		}
+		chooseAlgorithms(fragment, steps);
+
+		return steps;
+	}
+
+	/**
+	 * Derives the join key of two fragments from their signatures, or returns null if they do not join.
+	 */
+	private JoinStep createStep(RDFCubeFragment left, int leftIndex, RDFCubeFragment right) {
+		for (Quadruple<String, String, String, String> leftSignature : left.getSignatures()) {
+			for (Quadruple<String, String, String, String> rightSignature : right.getSignatures()) {
+				if (leftSignature.getThird() != null && leftSignature.getThird().equals(rightSignature.getFirst()))
+					return new JoinStep(right, leftIndex, JoinStep.OBJECT, JoinStep.SUBJECT, leftSignature.getThird());
+			}
+		}
+		for (Quadruple<String, String, String, String> leftSignature : left.getSignatures()) {
+			for (Quadruple<String, String, String, String> rightSignature : right.getSignatures()) {
+				if (leftSignature.getFirst() != null && leftSignature.getFirst().equals(rightSignature.getThird()))
+					return new JoinStep(right, leftIndex, JoinStep.SUBJECT, JoinStep.OBJECT, leftSignature.getFirst());
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * The first step joins two fragments: it hashes the smaller one unless both are large and
+	 * of similar size. The other steps stream the rows, so they hash their fragment.
+	 */
+	private void chooseAlgorithms(RDFCubeFragment first, List<JoinStep> steps) {
+		if (steps.isEmpty())
+			return;
+
+		JoinStep step = steps.get(0);
+		long leftSize = first.size();
+		long rightSize = step.getFragment().size();
+		long smaller = Math.min(leftSize, rightSize);
+		long larger = Math.max(leftSize, rightSize);
+		if (smaller <= maxHashBuildSize || smaller * 4 <= larger) {
+			step.setAlgorithm(JoinAlgorithm.HASH, leftSize < rightSize);
+		} else {
+			step.setAlgorithm(JoinAlgorithm.SORT_MERGE, false);
+		}
+	}
+
+	/**
+	 * Returns the rows of the plan: the first quad of every row comes from the first fragment
+	 * and the following ones from the fragments of the steps. Every iteration runs the plan again.
+	 * @param first
+	 * @param steps
+	 * @return
+	 * @throws IOException
+	 */
+	public Iterable<List<Quadruple<String, String, String, String>>> execute(final RDFCubeFragment first,
+			final List<JoinStep> steps) throws IOException {
+		// Materialized fragments are opened here so that iterators never fail on I/O
+		final Map<RDFCubeFragment, Iterable<Quadruple<String, String, String, String>>> sources = new HashMap<>();
+		sources.put(first, getQuads(first));
+		for (JoinStep step : steps) {
+			sources.put(step.getFragment(), getQuads(step.getFragment()));
+		}
+
+		return new Iterable<List<Quadruple<String, String, String, String>>>() {
+
+			@Override
+			public Iterator<List<Quadruple<String, String, String, String>>> iterator() {
+				Iterator<List<Quadruple<String, String, String, String>>> rows;
+				int start = 0;
+				if (!steps.isEmpty() && steps.get(0).getAlgorithm() == JoinAlgorithm.SORT_MERGE) {
+					rows = new SortMergeJoinIterator(sources.get(first), sources.get(steps.get(0).getFragment()), steps.get(0));
+					start = 1;
+				} else if (!steps.isEmpty() && steps.get(0).isBuildLeft()) {
+					rows = new BuildLeftHashJoinIterator(sources.get(first), sources.get(steps.get(0).getFragment()), steps.get(0));
+					start = 1;
+				} else {
+					rows = singletonRows(sources.get(first).iterator());
+				}
+				for (int i = start; i < steps.size(); ++i) {
+					rows = new HashJoinIterator(rows, sources.get(steps.get(i).getFragment()), steps.get(i));
+				}
+
+				return rows;
+			}
+
+		};
+	}
+
+	/**
+	 * Joins a chain of fragments, each with the previous one.
+	 * @param fragments
+	 * @return
+	 * @throws IOException
+	 */
+	public Iterable<List<Quadruple<String, String, String, String>>> chain(List<RDFCubeFragment> fragments) throws IOException {
+		return execute(fragments.get(0), planChain(fragments));
+	}
+
+	/**
+	 * Joins a fragment with its metadata fragments, following chains of metadata relations up to the given number of hops.
+	 * @param fragment
+	 * @param maxHops
+	 * @return
+	 * @throws IOException
+	 */
+	public Iterable<List<Quadruple<String, String, String, String>>> joinMetadata(RDFCubeFragment fragment, int maxHops) throws IOException {
+		return execute(fragment, planMetadataJoins(fragment, maxHops));
+	}
+
+	/**
+	 * Returns the quads of a fragment, from the store if it is materialized. The quads read from
+	 * the data source are copied, since some sources reuse the quad they return.
+	 */
+	private Iterable<Quadruple<String, String, String, String>> getQuads(final RDFCubeFragment fragment) throws IOException {
+		if (store != null && store.contains(fragment))
+			return store.getFragment(fragment);
+
+		return new Iterable<Quadruple<String, String, String, String>>() {
+
+			@Override
+			public Iterator<Quadruple<String, String, String, String>> iterator() {
+				final Iterator<Quadruple<String, String, String, String>> signatures = fragment.getSignatures().iterator();
+				return new LookaheadIterator<Quadruple<String, String, String, String>>() {
+
+					Quadruple<String, String, String, String> signature = null;
+
+					Iterator<Quadruple<String, String, String, String>> quads = Collections.emptyIterator();
+
+					@Override
+					Quadruple<String, String, String, String> computeNext() {
+						while (true) {
+							while (quads.hasNext()) {
+								Quadruple<String, String, String, String> quad = quads.next();
+								if (belongs(signature, quad))
+									return new Quadruple<>(quad.getFirst(), quad.getSecond(), quad.getThird(), quad.getFourth());
+							}
+							if (!signatures.hasNext())
+								return null;
+
+							signature = signatures.next();
+							quads = data.match(new Quadruple<String, String, String, String>(null, signature.getSecond(),
+									null, signature.getFourth())).iterator();
+						}
+					}
+
+				};
+			}
+
+		};
+	}
+
+	/**
+	 * Returns true if the quad belongs to the fragment defined by the signature. The relation and the
+	 * provenance identifier have already been matched.
+	 */
+	private boolean belongs(Quadruple<String, String, String, String> signature, Quadruple<String, String, String, String> quad) {
+		if (signature.getFirst() == null && signature.getThird() == null)
+			return true;
+
+		Pair<String, String> relationDomainAndRange = structure.getSignature(quad.getSecond());
+		return (signature.getFirst() == null || signature.getFirst().equals(relationDomainAndRange.getLeft()))
+				&& (signature.getThird() == null || signature.getThird().equals(relationDomainAndRange.getRight()));
+	}
+
+	/**
+	 * Returns the term of the quad in the given column if its relation gives it the join type, null otherwise.
+	 */
+	private String getKey(Quadruple<String, String, String, String> quad, int column, String joinType) {
+		Pair<String, String> relationDomainAndRange = structure.getSignature(quad.getSecond());
+		if (column == JoinStep.SUBJECT)
+			return joinType.equals(relationDomainAndRange.getLeft()) ? quad.getFirst() : null;
+
+		return joinType.equals(relationDomainAndRange.getRight()) ? quad.getThird() : null;
+	}
+
+	private static List<Quadruple<String, String, String, String>> extend(List<Quadruple<String, String, String, String>> row,
+			Quadruple<String, String, String, String> quad) {
+		List<Quadruple<String, String, String, String>> result = new ArrayList<>(row.size() + 1);
+		result.addAll(row);
+		result.add(quad);
+		return result;
+	}
+
+	private static Iterator<List<Quadruple<String, String, String, String>>> singletonRows(
+			final Iterator<Quadruple<String, String, String, String>> quads) {
+		return new Iterator<List<Quadruple<String, String, String, String>>>() {
+
+			@Override
+			public boolean hasNext() {
+				return quads.hasNext();
+			}
+
+			@Override
+			public List<Quadruple<String, String, String, String>> next() {
+				List<Quadruple<String, String, String, String>> row = new ArrayList<>(1);
+				row.add(quads.next());
+				return row;
+			}
+
+		};
+	}
+
+	/**
+	 * Builds a hash table on the quads of a fragment.
+	 */
+	private Map<String, List<Quadruple<String, String, String, String>>> buildHashTable(
+			Iterable<Quadruple<String, String, String, String>> quads, int column, String joinType) {
+		Map<String, List<Quadruple<String, String, String, String>>> table = new HashMap<>();
+		for (Quadruple<String, String, String, String> quad : quads) {
+			String key = getKey(quad, column, joinType);
+			if (key != null) {
+				List<Quadruple<String, String, String, String>> bucket = table.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<>(1);
+					table.put(key, bucket);
+				}
+				bucket.add(quad);
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Iterator that computes its next element in advance. computeNext() returns null at the end.
+	 */
+	private static abstract class LookaheadIterator<T> implements Iterator<T> {
+
+		private T next;
+
+		private boolean computed = false;
+
+		abstract T computeNext();
+
+		@Override
+		public boolean hasNext() {
+			if (!computed) {
+				next = computeNext();
+				computed = true;
+			}
+
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			computed = false;
+			return next;
+		}
+
+	}
+
+	/**
+	 * Streams the rows through a hash table built on the quads of the fragment of the step.
+	 * The table is built when the first row is requested.
+	 */
+	private class HashJoinIterator extends LookaheadIterator<List<Quadruple<String, String, String, String>>> {
+
+		private Iterator<List<Quadruple<String, String, String, String>>> rows;
+
+		private Iterable<Quadruple<String, String, String, String>> quads;
+
+		private JoinStep step;
+
+		private Map<String, List<Quadruple<String, String, String, String>>> table;
+
+		private List<Quadruple<String, String, String, String>> row;
+
+		private Iterator<Quadruple<String, String, String, String>> matches = Collections.emptyIterator();
+
+		HashJoinIterator(Iterator<List<Quadruple<String, String, String, String>>> rows,
+				Iterable<Quadruple<String, String, String, String>> quads, JoinStep step) {
+			this.rows = rows;
+			this.quads = quads;
+			this.step = step;
+		}
+
+		@Override
+		List<Quadruple<String, String, String, String>> computeNext() {
+			if (table == null) {
+				table = buildHashTable(quads, step.getRightColumn(), step.getJoinType());
+			}
+
+			while (!matches.hasNext()) {
+				if (!rows.hasNext())
+					return null;
+
+				row = rows.next();
+				String key = getKey(row.get(step.getLeftIndex()), step.getLeftColumn(), step.getJoinType());
+				List<Quadruple<String, String, String, String>> bucket = key == null ? null : table.get(key);
+				matches = bucket == null ? Collections.<Quadruple<String, String, String, String>>emptyIterator() : bucket.iterator();
+			}
+
+			return extend(row, matches.next());
+		}
+
+	}
+
+	/**
+	 * First step of a plan when its left fragment is the smaller one: the left fragment is
+	 * hashed and the fragment of the step is streamed through the table.
+	 */
+	private class BuildLeftHashJoinIterator extends LookaheadIterator<List<Quadruple<String, String, String, String>>> {
+
+		private Iterable<Quadruple<String, String, String, String>> leftQuads;
+
+		private Iterator<Quadruple<String, String, String, String>> rightQuads;
+
+		private JoinStep step;
+
+		private Map<String, List<Quadruple<String, String, String, String>>> table;
+
+		private Quadruple<String, String, String, String> right;
+
+		private Iterator<Quadruple<String, String, String, String>> matches = Collections.emptyIterator();
+
+		BuildLeftHashJoinIterator(Iterable<Quadruple<String, String, String, String>> leftQuads,
+				Iterable<Quadruple<String, String, String, String>> rightQuads, JoinStep step) {
+			this.leftQuads = leftQuads;
+			this.rightQuads = rightQuads.iterator();
+			this.step = step;
+		}
+
+		@Override
+		List<Quadruple<String, String, String, String>> computeNext() {
+			if (table == null) {
+				table = buildHashTable(leftQuads, step.getLeftColumn(), step.getJoinType());
+			}
+
+			while (!matches.hasNext()) {
+				if (!rightQuads.hasNext())
+					return null;
+
+				right = rightQuads.next();
+				String key = getKey(right, step.getRightColumn(), step.getJoinType());
+				List<Quadruple<String, String, String, String>> bucket = key == null ? null : table.get(key);
+				matches = bucket == null ? Collections.<Quadruple<String, String, String, String>>emptyIterator() : bucket.iterator();
+			}
+
+			return Arrays.asList(matches.next(), right);
+		}
+
+	}
+
+	/**
+	 * First step of a plan when both fragments are large: both are sorted on the join key
+	 * and every pair of groups with the same key is combined.
+	 */
+	private class SortMergeJoinIterator extends LookaheadIterator<List<Quadruple<String, String, String, String>>> {
+
+		private Iterable<Quadruple<String, String, String, String>> leftQuads;
+
+		private Iterable<Quadruple<String, String, String, String>> rightQuads;
+
+		private JoinStep step;
+
+		private List<Pair<String, Quadruple<String, String, String, String>>> left;
+
+		private List<Pair<String, Quadruple<String, String, String, String>>> right;
+
+		// Current groups [leftStart, leftEnd) x [rightStart, rightEnd) and cursors inside them
+		private int leftStart = 0;
+
+		private int leftEnd = 0;
+
+		private int rightStart = 0;
+
+		private int rightEnd = 0;
+
+		private int leftCursor = 0;
+
+		private int rightCursor = 0;
+
+		SortMergeJoinIterator(Iterable<Quadruple<String, String, String, String>> leftQuads,
+				Iterable<Quadruple<String, String, String, String>> rightQuads, JoinStep step) {
+			this.leftQuads = leftQuads;
+			this.rightQuads = rightQuads;
+			this.step = step;
+		}
+
+		private List<Pair<String, Quadruple<String, String, String, String>>> sort(
+				Iterable<Quadruple<String, String, String, String>> quads, int column) {
+			List<Pair<String, Quadruple<String, String, String, String>>> result = new ArrayList<>();
+			for (Quadruple<String, String, String, String> quad : quads) {
+				String key = getKey(quad, column, step.getJoinType());
+				if (key != null) {
+					result.add(new ImmutablePair<>(key, quad));
+				}
+			}
+			Collections.sort(result, new Comparator<Pair<String, Quadruple<String, String, String, String>>>() {
+				@Override
+				public int compare(Pair<String, Quadruple<String, String, String, String>> o1,
+						Pair<String, Quadruple<String, String, String, String>> o2) {
+					return o1.getLeft().compareTo(o2.getLeft());
+				}
+			});
+
+			return result;
+		}
+
+		/**
+		 * Moves to the next pair of groups with the same key. Returns false if there is none.
+		 */
+		private boolean nextGroups() {
+			int i = leftEnd;
+			int j = rightEnd;
+			while (i < left.size() && j < right.size()) {
+				int comparison = left.get(i).getLeft().compareTo(right.get(j).getLeft());
+				if (comparison < 0) {
+					++i;
+				} else if (comparison > 0) {
+					++j;
+				} else {
+					String key = left.get(i).getLeft();
+					leftStart = i;
+					leftEnd = i;
+					while (leftEnd < left.size() && left.get(leftEnd).getLeft().equals(key)) {
+						++leftEnd;
+					}
+					rightStart = j;
+					rightEnd = j;
+					while (rightEnd < right.size() && right.get(rightEnd).getLeft().equals(key)) {
+						++rightEnd;
+					}
+					leftCursor = leftStart;
+					rightCursor = rightStart;
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		@Override
+		List<Quadruple<String, String, String, String>> computeNext() {
+			if (left == null) {
+				left = sort(leftQuads, step.getLeftColumn());
+				right = sort(rightQuads, step.getRightColumn());
+			}
+
+			if (rightCursor == rightEnd) {
+				rightCursor = rightStart;
+				++leftCursor;
+			}
+			if (leftCursor >= leftEnd && !nextGroups())
+				return null;
+
+			return Arrays.asList(left.get(leftCursor).getRight(), right.get(rightCursor++).getRight());
+		}
+
+	}
+
+	/**
+	 * Usage: cube-file schema-file relation1,relation2,...
+	 * Joins the fragments of the relations (all provenance identifiers) as a chain. With a single
+	 * relation, joins its fragment with its metadata fragments up to 3 hops.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		RDFCubeDataSource data = InMemoryRDFCubeDataSource.build(args[0]);
+		RDFCubeStructure structure = RDFCubeStructure.build(args[1]);
+		FragmentLattice lattice = new ExampleFragmentLatticeBuilder().build(data, structure);
+		Map<String, RDFCubeFragment> relationFragments = new LinkedHashMap<>();
+		for (RDFCubeFragment fragment : lattice) {
+			Quadruple<String, String, String, String> signature = fragment.getFirstSignature();
+			if (fragment.getSignatures().size() == 1 && signature.getSecond() != null && signature.getFourth() == null) {
+				relationFragments.put(signature.getSecond(), fragment);
+			}
+		}
+
+		List<RDFCubeFragment> fragments = new ArrayList<>();
+		for (String relation : args[2].split(",")) {
+			RDFCubeFragment fragment = relationFragments.get(relation);
+			if (fragment == null) {
+				System.err.println("No quads with relation " + relation);
+				return;
+			}
+			fragments.add(fragment);
+		}
+
+		FragmentJoinEngine engine = new FragmentJoinEngine(lattice, null, data);
+		List<JoinStep> steps = fragments.size() == 1 ?
+				engine.planMetadataJoins(fragments.get(0), 3) : engine.planChain(fragments);
+		for (JoinStep step : steps) {
+			System.out.println(step);
+		}
+		for (List<Quadruple<String, String, String, String>> row : engine.execute(fragments.get(0), steps)) {
+			System.out.println(row);
+		}
+	}
+
+}
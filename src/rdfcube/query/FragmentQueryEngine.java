@@ -0,0 +1,230 @@
+package rdfcube.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rdfcube.FragmentClosureIndex;
+import rdfcube.FragmentLattice;
+import rdfcube.RDFCubeFragment;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.TermDictionary;
+import rdfcube.storage.MaterializedFragment;
+import rdfcube.storage.MaterializedFragmentStore;
+import rdfcube.storage.QuadConsumer;
+import rdfcube.types.Quadruple;
+
+/**
+ * Answers quad patterns by reading the smallest materialized fragments that contain all
+ * the answers. The lattice tells which fragment covers the pattern; the engine reads either
+ * the smallest materialized fragment among the fragment and its ancestors or, if the fragment
+ * is split into disjoint parts, the smallest materialized ancestor of every part, whichever
+ * reads fewer triples. If no plan is possible, the pattern is answered from the root
+ * fragment, i.e., by scanning the whole cube.
+ *
+ */
+public class FragmentQueryEngine {
+
+	private FragmentLattice lattice;
+
+	private MaterializedFragmentStore store;
+
+	/**
+	 * Source used when the root fragment has not been materialized
+	 */
+	private RDFCubeDataSource data;
+
+	/**
+	 * Marks a component that target fragments do not bind
+	 */
+	private static final int ANY_TERM = -2;
+
+	public FragmentQueryEngine(FragmentLattice lattice, MaterializedFragmentStore store, RDFCubeDataSource data) {
+		this.lattice = lattice;
+		this.store = store;
+		this.data = data;
+	}
+
+	/**
+	 * Returns the quads matching the pattern.
+	 * @param pattern Quad pattern where null components are variables. The fourth
+	 * component acts as a provenance filter.
+	 * @return
+	 * @throws IOException
+	 */
+	public QueryResult answer(Quadruple<String, String, String, String> pattern) throws IOException {
+		QueryResult result = new QueryResult(lattice.getRoot().size());
+		Map<RDFCubeFragment, Set<RDFCubeFragment>> fragments = getFragmentsToScan(pattern);
+		if (fragments == null) {
+			scanRoot(pattern, result);
+		} else {
+			for (Map.Entry<RDFCubeFragment, Set<RDFCubeFragment>> entry : fragments.entrySet()) {
+				scan(store.getFragment(entry.getKey()), entry.getKey(), entry.getValue(), pattern, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the materialized fragments that must be read to answer the pattern, each of them
+	 * mapped to the fragments of the lattice whose quads it provides, or null if the whole cube
+	 * must be read. Those fragments are disjoint, so no answer is produced twice.
+	 * @param pattern
+	 * @return
+	 */
+	Map<RDFCubeFragment, Set<RDFCubeFragment>> getFragmentsToScan(Quadruple<String, String, String, String> pattern) {
+		Map<RDFCubeFragment, Set<RDFCubeFragment>> result = new LinkedHashMap<>();
+		RDFCubeFragment covering = lattice.getCoveringFragment(pattern);
+		if (covering == null)
+			return result;
+
+		FragmentClosureIndex closure = lattice.getClosureIndex();
+		RDFCubeFragment best = getSmallestMaterialized(covering, closure);
+		long cost = best == null || best.isRoot() ? Long.MAX_VALUE : best.size();
+
+		// The parts of the covering fragment may have smaller materialized ancestors
+		Map<RDFCubeFragment, Set<RDFCubeFragment>> partsPlan = new LinkedHashMap<>();
+		long partsCost = 0;
+		for (RDFCubeFragment part : lattice.getParts(covering)) {
+			RDFCubeFragment partBest = getSmallestMaterialized(part, closure);
+			if (partBest == null || partBest.isRoot()) {
+				partsCost = Long.MAX_VALUE;
+				break;
+			}
+
+			Set<RDFCubeFragment> parts = partsPlan.get(partBest);
+			if (parts == null) {
+				parts = new LinkedHashSet<>();
+				partsPlan.put(partBest, parts);
+				partsCost += partBest.size();
+			}
+			parts.add(part);
+		}
+		if (!partsPlan.isEmpty() && partsCost < cost)
+			return partsPlan;
+
+		if (cost == Long.MAX_VALUE)
+			return null;
+
+		result.put(best, Collections.singleton(covering));
+		return result;
+	}
+
+	/**
+	 * Returns the smallest materialized fragment among the fragment and its ancestors,
+	 * or null if there is none.
+	 */
+	private RDFCubeFragment getSmallestMaterialized(RDFCubeFragment fragment, FragmentClosureIndex closure) {
+		RDFCubeFragment best = store.contains(fragment) ? fragment : null;
+		for (RDFCubeFragment ancestor : closure.getAncestors(fragment)) {
+			if (store.contains(ancestor) && (best == null || ancestor.size() < best.size())) {
+				best = ancestor;
+			}
+		}
+
+		return best;
+	}
+
+	private void scanRoot(Quadruple<String, String, String, String> pattern, QueryResult result) throws IOException {
+		RDFCubeFragment root = lattice.getRoot();
+		if (store.contains(root)) {
+			scan(store.getFragment(root), root, Collections.singleton(root), pattern, result);
+			return;
+		}
+
+		long scanned = 0;
+		for (Quadruple<String, String, String, String> quad : data) {
+			++scanned;
+			if (matches(pattern, quad)) {
+				// Some sources reuse the quad they return
+				result.addAnswer(new Quadruple<>(quad.getFirst(), quad.getSecond(), quad.getThird(), quad.getFourth()));
+			}
+		}
+		result.addScannedFragment(root.toString(), scanned);
+	}
+
+	/**
+	 * Scans a materialized fragment and keeps the matching quads that belong to the target fragments.
+	 * @param fragment
+	 * @param latticeFragment
+	 * @param targets Fragments of the lattice whose quads are taken from this materialized fragment
+	 * @param pattern
+	 * @param result
+	 */
+	private void scan(final MaterializedFragment fragment, RDFCubeFragment latticeFragment, Set<RDFCubeFragment> targets,
+			Quadruple<String, String, String, String> pattern, final QueryResult result) {
+		TermDictionary dictionary = fragment.getDictionary();
+		int subject = dictionary.lookup(pattern.getFirst());
+		int relation = dictionary.lookup(pattern.getSecond());
+		int object = dictionary.lookup(pattern.getThird());
+		int provenanceId = dictionary.lookup(pattern.getFourth());
+		// The quads outside the targets, if any, are answered from other fragments
+		final List<int[]> filter = targets.contains(latticeFragment) ? null : getTargetTerms(dictionary, targets);
+		// A bound term that does not occur in the materialized data cannot have answers
+		if ((pattern.getFirst() != null && subject == TermDictionary.NULL_ID)
+				|| (pattern.getSecond() != null && relation == TermDictionary.NULL_ID)
+				|| (pattern.getThird() != null && object == TermDictionary.NULL_ID)
+				|| (pattern.getFourth() != null && provenanceId == TermDictionary.NULL_ID)
+				|| (filter != null && filter.isEmpty())) {
+			result.addScannedFragment(latticeFragment.toString(), 0);
+			return;
+		}
+
+		long scanned = fragment.scan(subject, relation, object, provenanceId, new QuadConsumer() {
+			@Override
+			public void accept(int subject, int relation, int object, int provenanceId) {
+				if (filter == null || isTarget(filter, relation, provenanceId)) {
+					result.addAnswer(fragment.decode(subject, relation, object, provenanceId));
+				}
+			}
+		});
+		result.addScannedFragment(latticeFragment.toString(), scanned);
+	}
+
+	/**
+	 * Returns the encoded relation and provenance identifier of the signatures of the targets,
+	 * with {@link #ANY_TERM} for the components they do not bind. Signatures whose terms do not
+	 * occur in the dictionary are left out.
+	 */
+	private static List<int[]> getTargetTerms(TermDictionary dictionary, Set<RDFCubeFragment> targets) {
+		List<int[]> result = new ArrayList<>();
+		for (RDFCubeFragment target : targets) {
+			for (Quadruple<String, String, String, String> signature : target.getSignatures()) {
+				int relation = signature.getSecond() == null ? ANY_TERM : dictionary.lookup(signature.getSecond());
+				int provenanceId = signature.getFourth() == null ? ANY_TERM : dictionary.lookup(signature.getFourth());
+				if (relation != TermDictionary.NULL_ID && provenanceId != TermDictionary.NULL_ID) {
+					result.add(new int[] {relation, provenanceId});
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static boolean isTarget(List<int[]> targetTerms, int relation, int provenanceId) {
+		for (int[] terms : targetTerms) {
+			if ((terms[0] == ANY_TERM || terms[0] == relation) && (terms[1] == ANY_TERM || terms[1] == provenanceId))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if the quad matches the pattern. Null components of the pattern match any value.
+	 * @param pattern
+	 * @param quad
+	 * @return
+	 */
+	public static boolean matches(Quadruple<String, String, String, String> pattern,
+			Quadruple<String, String, String, String> quad) {
+		return RDFCubeDataSource.matches(pattern, quad);
+	}
+
+}
@@ -0,0 +1,16 @@
+package rdfcube.query;
+
+/**
+ * Physical operators used by {@link FragmentJoinEngine}.
+ *
+ */
+public enum JoinAlgorithm {
+	/**
+	 * Builds a hash table on one input and streams the other one through it
+	 */
+	HASH,
+	/**
+	 * Sorts both inputs on the join key and merges them
+	 */
+	SORT_MERGE
+}
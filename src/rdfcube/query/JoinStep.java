@@ -0,0 +1,107 @@
+package rdfcube.query;
+
+import rdfcube.RDFCubeFragment;
+
+/**
+ * One join of a plan of {@link FragmentJoinEngine}: the rows produced so far are joined with
+ * the quads of a fragment on a term of one quad of the row. The row grows by one quad.
+ *
+ */
+public class JoinStep {
+
+	public static final int SUBJECT = 0;
+
+	public static final int OBJECT = 2;
+
+	private RDFCubeFragment fragment;
+
+	private int leftIndex;
+
+	private int leftColumn;
+
+	private int rightColumn;
+
+	private String joinType;
+
+	private JoinAlgorithm algorithm;
+
+	/**
+	 * True if the hash table is built on the left input, which is then a single fragment
+	 */
+	private boolean buildLeft;
+
+	JoinStep(RDFCubeFragment fragment, int leftIndex, int leftColumn, int rightColumn, String joinType) {
+		this.fragment = fragment;
+		this.leftIndex = leftIndex;
+		this.leftColumn = leftColumn;
+		this.rightColumn = rightColumn;
+		this.joinType = joinType;
+		this.algorithm = JoinAlgorithm.HASH;
+		this.buildLeft = false;
+	}
+
+	/**
+	 * Fragment joined by this step.
+	 * @return
+	 */
+	public RDFCubeFragment getFragment() {
+		return fragment;
+	}
+
+	/**
+	 * Position in the row of the quad the fragment joins.
+	 * @return
+	 */
+	public int getLeftIndex() {
+		return leftIndex;
+	}
+
+	/**
+	 * {@link #SUBJECT} or {@link #OBJECT}
+	 * @return
+	 */
+	public int getLeftColumn() {
+		return leftColumn;
+	}
+
+	/**
+	 * {@link #SUBJECT} or {@link #OBJECT}
+	 * @return
+	 */
+	public int getRightColumn() {
+		return rightColumn;
+	}
+
+	/**
+	 * Type of the terms the step joins on.
+	 * @return
+	 */
+	public String getJoinType() {
+		return joinType;
+	}
+
+	public JoinAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public boolean isBuildLeft() {
+		return buildLeft;
+	}
+
+	void setAlgorithm(JoinAlgorithm algorithm, boolean buildLeft) {
+		this.algorithm = algorithm;
+		this.buildLeft = buildLeft;
+	}
+
+	private static String getColumnName(int column) {
+		return column == SUBJECT ? "subject" : "object";
+	}
+
+	@Override
+	public String toString() {
+		return algorithm + (algorithm == JoinAlgorithm.HASH ? (buildLeft ? " (build left)" : " (build right)") : "")
+				+ " #" + leftIndex + "." + getColumnName(leftColumn) + " = " + getColumnName(rightColumn)
+				+ " of " + fragment + " on " + joinType;
+	}
+
+}
@@ -0,0 +1,73 @@
+package rdfcube.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import rdfcube.types.Quadruple;
+
+/**
+ * Answers of a quad pattern together with the cost of computing them.
+ *
+ */
+public class QueryResult {
+
+	private List<Quadruple<String, String, String, String>> answers;
+
+	private List<String> scannedFragments;
+
+	private long scannedTriples;
+
+	private long fullScanTriples;
+
+	QueryResult(long fullScanTriples) {
+		this.answers = new ArrayList<>();
+		this.scannedFragments = new ArrayList<>();
+		this.scannedTriples = 0;
+		this.fullScanTriples = fullScanTriples;
+	}
+
+	void addAnswer(Quadruple<String, String, String, String> answer) {
+		answers.add(answer);
+	}
+
+	void addScannedFragment(String fragment, long triples) {
+		scannedFragments.add(fragment);
+		scannedTriples += triples;
+	}
+
+	public List<Quadruple<String, String, String, String>> getAnswers() {
+		return Collections.unmodifiableList(answers);
+	}
+
+	/**
+	 * Descriptions of the fragments read to compute the answers.
+	 * @return
+	 */
+	public List<String> getScannedFragments() {
+		return Collections.unmodifiableList(scannedFragments);
+	}
+
+	/**
+	 * Number of triples read to compute the answers.
+	 * @return
+	 */
+	public long getScannedTriples() {
+		return scannedTriples;
+	}
+
+	/**
+	 * Number of triples a scan of the whole cube would read.
+	 * @return
+	 */
+	public long getFullScanTriples() {
+		return fullScanTriples;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + answers.size() + " answers, " + scannedTriples + " of " + fullScanTriples
+				+ " triples scanned in " + scannedFragments + "]";
+	}
+
+}
@@ -0,0 +1,156 @@
+package rdfcube.sketch;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * HyperLogLog sketch (Flajolet et al.) estimating the number of distinct values added to it
+ * in 2^precision bytes. Two sketches with the same precision can be merged; the result is the
+ * sketch of the union of their values. Values cannot be removed. With the default precision
+ * the sketch takes 1 KB and the standard error of the estimate is around 3%.
+ *
+ */
+public class HyperLogLog {
+
+	public static final int defaultPrecision = 10;
+
+	private int precision;
+
+	private byte[] registers;
+
+	public HyperLogLog() {
+		this(defaultPrecision);
+	}
+
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 16)
+			throw new IllegalArgumentException("The precision must be between 4 and 16");
+
+		this.precision = precision;
+		registers = new byte[1 << precision];
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public void add(String value) {
+		addHash(hash(value));
+	}
+
+	/**
+	 * Adds a value given its 64-bit hash, computed with {@link #hash(String)}.
+	 * @param hash
+	 */
+	public void addHash(long hash) {
+		int index = (int)(hash >>> (64 - precision));
+		// The extra bit bounds the rank when the remaining bits are all zero
+		long remaining = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte)(Long.numberOfLeadingZeros(remaining) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+		}
+	}
+
+	/**
+	 * Adds the values of another sketch to this one.
+	 * @param other A sketch with the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision)
+			throw new IllegalArgumentException("Cannot merge sketches with precisions " + precision + " and " + other.precision);
+
+		for (int i = 0; i < registers.length; ++i) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated number of distinct values.
+	 * @return
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				++zeros;
+			}
+		}
+
+		double estimate = getAlpha(m) * m * m / sum;
+		// Linear counting is more accurate for small cardinalities
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double)m / zeros);
+		}
+
+		return Math.round(estimate);
+	}
+
+	private static double getAlpha(int m) {
+		switch (m) {
+		case 16 :
+			return 0.673;
+		case 32 :
+			return 0.697;
+		case 64 :
+			return 0.709;
+		default :
+			return 0.7213 / (1.0 + 1.079 / m);
+		}
+	}
+
+	/**
+	 * 64-bit hash of a string: FNV-1a over its characters followed by the finalizer of MurmurHash3,
+	 * so that every bit of the result depends on every character. Null (an empty field of the
+	 * cube file) is hashed as the empty string, which is never a term.
+	 * @param value
+	 * @return
+	 */
+	public static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; value != null && i < value.length(); ++i) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	/**
+	 * Writes the precision and the registers.
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(DataOutput output) throws IOException {
+		output.writeByte(precision);
+		output.write(registers);
+	}
+
+	/**
+	 * Reads a sketch written with {@link #write(DataOutput)}.
+	 * @param buffer
+	 * @return
+	 */
+	public static HyperLogLog read(ByteBuffer buffer) {
+		HyperLogLog sketch = new HyperLogLog(buffer.get());
+		buffer.get(sketch.registers);
+		return sketch;
+	}
+
+	@Override
+	public String toString() {
+		return "[~" + estimate() + " distinct values]";
+	}
+
+}
@@ -0,0 +1,282 @@
+package rdfcube.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import rdfcube.data.TermDictionary;
+import rdfcube.types.Quadruple;
+
+/**
+ * Memory-mapped contents of a fragment stored in {@link FragmentEncoding#COLUMNAR} encoding.
+ * The relation and provenance columns are not stored when the signatures of the fragment fix
+ * them. The quads are sorted by subject and split in blocks of {@link #blockSize} quads; inside
+ * a block every column is stored contiguously as variable-length integers, the subjects as
+ * deltas with respect to the previous subject. The file ends with a directory that keeps the
+ * minimum and maximum identifier of every column in every block, so that scans skip the
+ * blocks that cannot contain matches.
+ * <p>
+ * Layout: header, flags of the constant columns, constant relation, constant provenance
+ * identifier, number of quads, blocks, directory (offset, length, number of quads and
+ * minimum and maximum of the four columns for every block), number of blocks and offset
+ * of the directory.
+ *
+ */
+public class ColumnarMaterializedFragment extends MaterializedFragment {
+
+	static final int blockSize = 1024;
+
+	static final byte constantRelationFlag = 1;
+
+	static final byte constantProvenanceFlag = 2;
+
+	/**
+	 * Bytes used before the first block: header, flags, constants and size
+	 */
+	static final int prefixSize = FragmentMaterializer.headerSize + 1 + 4 + 4 + 8;
+
+	/**
+	 * Bytes used by every block in the directory
+	 */
+	static final int directoryEntrySize = 8 + 4 + 4 + 8 * 4;
+
+	/**
+	 * Bytes used after the directory: number of blocks and offset of the directory
+	 */
+	static final int trailerSize = 4 + 8;
+
+	/**
+	 * Largest region mapped at once; blocks are never split between mappings
+	 */
+	private static final long maxMappingSize = 1L << 30;
+
+	private int constantRelation;
+
+	private int constantProvenance;
+
+	private long storageSize;
+
+	private ByteBuffer[] mappings;
+
+	private int[] blockMappings;
+
+	private int[] blockOffsets;
+
+	private int[] blockCounts;
+
+	/**
+	 * Minimum and maximum identifier of every column (subject, relation, object, provenance) in every block
+	 */
+	private int[][] minima;
+
+	private int[][] maxima;
+
+	private ColumnarMaterializedFragment(long size, TermDictionary dictionary) {
+		super(size, dictionary);
+	}
+
+	/**
+	 * Maps a fragment file written by {@link FragmentMaterializer}.
+	 * @param file
+	 * @param dictionary
+	 * @return
+	 * @throws IOException
+	 */
+	static ColumnarMaterializedFragment map(File file, TermDictionary dictionary) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			long fileSize = channel.size();
+			if (fileSize < prefixSize + trailerSize)
+				throw new IOException(file + " is truncated");
+
+			MappedByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, prefixSize);
+			MaterializedFragmentStore.checkHeader(prefix.getInt(), prefix.getInt(), file);
+			byte flags = prefix.get();
+			int constantRelation = prefix.getInt();
+			int constantProvenance = prefix.getInt();
+			ColumnarMaterializedFragment fragment = new ColumnarMaterializedFragment(prefix.getLong(), dictionary);
+			fragment.constantRelation = (flags & constantRelationFlag) != 0 ? constantRelation : TermDictionary.NULL_ID;
+			fragment.constantProvenance = (flags & constantProvenanceFlag) != 0 ? constantProvenance : TermDictionary.NULL_ID;
+			fragment.storageSize = fileSize;
+
+			MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - trailerSize, trailerSize);
+			int nBlocks = trailer.getInt();
+			long directoryOffset = trailer.getLong();
+			MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+					(long)nBlocks * directoryEntrySize);
+
+			fragment.blockMappings = new int[nBlocks];
+			fragment.blockOffsets = new int[nBlocks];
+			fragment.blockCounts = new int[nBlocks];
+			fragment.minima = new int[4][nBlocks];
+			fragment.maxima = new int[4][nBlocks];
+			List<ByteBuffer> mappings = new ArrayList<>();
+			long mappingStart = prefixSize;
+			long[] offsets = new long[nBlocks];
+			int[] lengths = new int[nBlocks];
+			for (int block = 0; block < nBlocks; ++block) {
+				offsets[block] = directory.getLong();
+				lengths[block] = directory.getInt();
+				fragment.blockCounts[block] = directory.getInt();
+				for (int column = 0; column < 4; ++column) {
+					fragment.minima[column][block] = directory.getInt();
+					fragment.maxima[column][block] = directory.getInt();
+				}
+				if (offsets[block] + lengths[block] - mappingStart > maxMappingSize) {
+					mappings.add(channel.map(FileChannel.MapMode.READ_ONLY, mappingStart, offsets[block] - mappingStart));
+					mappingStart = offsets[block];
+				}
+				fragment.blockMappings[block] = mappings.size();
+				fragment.blockOffsets[block] = (int)(offsets[block] - mappingStart);
+			}
+			if (nBlocks > 0) {
+				mappings.add(channel.map(FileChannel.MapMode.READ_ONLY, mappingStart, directoryOffset - mappingStart));
+			}
+			fragment.mappings = mappings.toArray(new ByteBuffer[mappings.size()]);
+			// The mappings remain valid after the channel is closed
+			return fragment;
+		}
+	}
+
+	@Override
+	public long getStorageSize() {
+		return storageSize;
+	}
+
+	/**
+	 * Number of blocks in the fragment.
+	 * @return
+	 */
+	public int getBlockCount() {
+		return blockCounts.length;
+	}
+
+	/**
+	 * Decodes a block into the columns, which must hold at least {@link #blockSize} identifiers.
+	 * @return Number of quads in the block
+	 */
+	private int decodeBlock(int block, int[] subjects, int[] relations, int[] objects, int[] provenances) {
+		ByteBuffer buffer = mappings[blockMappings[block]].duplicate();
+		buffer.position(blockOffsets[block]);
+		int count = blockCounts[block];
+		int subject = minima[0][block];
+		for (int i = 0; i < count; ++i) {
+			subject += readVarInt(buffer);
+			subjects[i] = subject;
+		}
+		readColumn(buffer, relations, count, constantRelation);
+		readColumn(buffer, objects, count, TermDictionary.NULL_ID);
+		readColumn(buffer, provenances, count, constantProvenance);
+
+		return count;
+	}
+
+	private static void readColumn(ByteBuffer buffer, int[] column, int count, int constant) {
+		for (int i = 0; i < count; ++i) {
+			column[i] = constant == TermDictionary.NULL_ID ? readVarInt(buffer) : constant;
+		}
+	}
+
+	static int readVarInt(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return value;
+	}
+
+	/**
+	 * Returns false if the block cannot contain quads matching the pattern.
+	 */
+	private boolean mayMatch(int block, int[] pattern) {
+		for (int column = 0; column < 4; ++column) {
+			int id = pattern[column];
+			if (id != TermDictionary.NULL_ID && (id < minima[column][block] || id > maxima[column][block]))
+				return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public long scan(int subject, int relation, int object, int provenanceId, QuadConsumer consumer) {
+		if ((relation != TermDictionary.NULL_ID && constantRelation != TermDictionary.NULL_ID && relation != constantRelation)
+				|| (provenanceId != TermDictionary.NULL_ID && constantProvenance != TermDictionary.NULL_ID
+						&& provenanceId != constantProvenance))
+			return 0;
+
+		int[] pattern = {subject, relation, object, provenanceId};
+		int[] subjects = new int[blockSize];
+		int[] relations = new int[blockSize];
+		int[] objects = new int[blockSize];
+		int[] provenances = new int[blockSize];
+		long read = 0;
+		for (int block = 0; block < blockCounts.length; ++block) {
+			if (!mayMatch(block, pattern))
+				continue;
+
+			int count = decodeBlock(block, subjects, relations, objects, provenances);
+			read += count;
+			for (int i = 0; i < count; ++i) {
+				if (matches(subject, relation, object, provenanceId, subjects[i], relations[i], objects[i], provenances[i])) {
+					consumer.accept(subjects[i], relations[i], objects[i], provenances[i]);
+				}
+			}
+		}
+
+		return read;
+	}
+
+	@Override
+	public Iterator<Quadruple<String, String, String, String>> iterator() {
+		return new Iterator<Quadruple<String, String, String, String>>() {
+
+			int block = 0;
+
+			int count = 0;
+
+			int next = 0;
+
+			final int[] subjects = new int[blockSize];
+
+			final int[] relations = new int[blockSize];
+
+			final int[] objects = new int[blockSize];
+
+			final int[] provenances = new int[blockSize];
+
+			@Override
+			public boolean hasNext() {
+				while (next >= count && block < blockCounts.length) {
+					count = decodeBlock(block++, subjects, relations, objects, provenances);
+					next = 0;
+				}
+
+				return next < count;
+			}
+
+			@Override
+			public Quadruple<String, String, String, String> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				int i = next++;
+				return decode(subjects[i], relations[i], objects[i], provenances[i]);
+			}
+
+		};
+	}
+
+}
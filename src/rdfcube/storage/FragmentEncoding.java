@@ -0,0 +1,19 @@
+package rdfcube.storage;
+
+/**
+ * Layouts of the files of materialized fragments.
+ *
+ */
+public enum FragmentEncoding {
+
+	/**
+	 * Quads in cube order as four 32-bit identifiers, which allows random access
+	 */
+	ROW,
+
+	/**
+	 * Quads sorted by subject in compressed column blocks, see {@link ColumnarMaterializedFragment}
+	 */
+	COLUMNAR;
+
+}
@@ -0,0 +1,461 @@
+package rdfcube.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import rdfcube.FragmentLattice;
+import rdfcube.RDFCubeFragment;
+import rdfcube.data.RDFCubeDataSource;
+import rdfcube.data.TermDictionary;
+import rdfcube.types.Quadruple;
+
+/**
+ * Writes the contents of a set of fragments to disk. The directory receives a dictionary
+ * with all the terms of the materialized quads, a catalog with the signatures of the fragments
+ * and one binary file per fragment with its quads in the chosen {@link FragmentEncoding}:
+ * sequences of four integer identifiers or compressed column blocks.
+ * The files are read back with {@link MaterializedFragmentStore}.
+ *
+ */
+public class FragmentMaterializer {
+
+	static final int magic = 0x52444643;
+
+	/**
+	 * Version 2 added the encoding of every fragment to the catalog
+	 */
+	static final int version = 2;
+
+	static final String dictionaryFileName = "dictionary.bin";
+
+	static final String catalogFileName = "catalog.bin";
+
+	/**
+	 * Bytes used by the header of every file: magic number and version
+	 */
+	static final int headerSize = 8;
+
+	/**
+	 * Memory shared by the write buffers of the fragments during the scan
+	 */
+	private static final int writeBufferMemory = 64 << 20;
+
+	private static final int minWriteBufferSize = 4 << 10;
+
+	private static final int maxWriteBufferSize = 64 << 10;
+
+	/**
+	 * Fragment files that can be open at the same time during the scan
+	 */
+	private static final int maxOpenFiles = 64;
+
+	private FragmentLattice lattice;
+
+	private FragmentEncoding encoding;
+
+	public FragmentMaterializer(FragmentLattice lattice) {
+		this.lattice = lattice;
+		encoding = FragmentEncoding.ROW;
+	}
+
+	public void setEncoding(FragmentEncoding encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Scans the cube once and writes the quads of the given fragments in the directory.
+	 * Every fragment buffers its quads in memory and full buffers are appended to its file,
+	 * with at most {@link #maxOpenFiles} files open at a time (see {@link FragmentWriters}).
+	 * In columnar encoding, every fragment file is then read into memory, deleted and
+	 * replaced by its columnar file, so the disk never holds both copies of the selection.
+	 * @param fragments
+	 * @param data
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public MaterializedFragmentStore materialize(Set<RDFCubeFragment> fragments, RDFCubeDataSource data,
+			File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the directory " + directory);
+
+		TermDictionary dictionary = new TermDictionary();
+		Map<RDFCubeFragment, Integer> ids = new HashMap<>();
+		Map<RDFCubeFragment, String> fileNames = new LinkedHashMap<>();
+		List<File> files = new ArrayList<>();
+		for (RDFCubeFragment fragment : fragments) {
+			String fileName = "fragment-" + fileNames.size() + ".bin";
+			ids.put(fragment, files.size());
+			fileNames.put(fragment, fileName);
+			files.add(new File(directory, fileName));
+		}
+
+		try (FragmentWriters writers = new FragmentWriters(files)) {
+			for (Quadruple<String, String, String, String> quad : data) {
+				boolean encoded = false;
+				int subject = 0, relation = 0, object = 0, provenanceId = 0;
+				for (RDFCubeFragment fragment : lattice.getContainingFragments(quad)) {
+					Integer id = ids.get(fragment);
+					if (id == null)
+						continue;
+
+					if (!encoded) {
+						subject = dictionary.encode(quad.getFirst());
+						relation = dictionary.encode(quad.getSecond());
+						object = dictionary.encode(quad.getThird());
+						provenanceId = dictionary.encode(quad.getFourth());
+						encoded = true;
+					}
+					writers.write(id, subject, relation, object, provenanceId);
+				}
+			}
+		}
+
+		if (encoding == FragmentEncoding.COLUMNAR) {
+			for (Map.Entry<RDFCubeFragment, String> entry : fileNames.entrySet()) {
+				File rowFile = new File(directory, entry.getValue());
+				String fileName = entry.getValue().replace(".bin", ".col");
+				// The row file is read rather than mapped, so nothing prevents its deletion
+				int[][] columns = readRows(rowFile);
+				if (!rowFile.delete())
+					throw new IOException("Could not delete " + rowFile);
+
+				writeColumnar(columns, dictionary, entry.getKey().getSignatures(), new File(directory, fileName));
+				entry.setValue(fileName);
+			}
+		}
+
+		try (DataOutputStream output = open(new File(directory, dictionaryFileName))) {
+			dictionary.write(output);
+		}
+
+		try (DataOutputStream output = open(new File(directory, catalogFileName))) {
+			output.writeInt(fileNames.size());
+			for (Map.Entry<RDFCubeFragment, String> entry : fileNames.entrySet()) {
+				output.writeUTF(entry.getValue());
+				output.writeByte(encoding.ordinal());
+				writeSignatures(entry.getKey().getSignatures(), output);
+			}
+		}
+
+		return MaterializedFragmentStore.open(directory);
+	}
+
+	/**
+	 * Returns the positions of the fragment sorted by subject and then by position. Fragments
+	 * with at least as many quads as terms in the dictionary are sorted with a counting sort,
+	 * smaller fragments with a comparison sort, so that the cost never depends on the size of
+	 * the dictionary alone.
+	 */
+	private static int[] sortBySubject(int[] subjects, int nTerms) {
+		int size = subjects.length;
+		int[] sorted = new int[size];
+		if (size >= nTerms) {
+			// Identifiers are shifted by one so that null subjects (NULL_ID) sort first.
+			// After the prefix sums, counts[id + 1] is the first slot of the identifier.
+			int[] counts = new int[nTerms + 2];
+			for (int position = 0; position < size; ++position) {
+				++counts[subjects[position] + 2];
+			}
+			for (int id = 1; id < counts.length; ++id) {
+				counts[id] += counts[id - 1];
+			}
+			for (int position = 0; position < size; ++position) {
+				sorted[counts[subjects[position] + 1]++] = position;
+			}
+		} else {
+			// The subject in the high bits and the position in the low bits
+			long[] keys = new long[size];
+			for (int position = 0; position < size; ++position) {
+				keys[position] = ((long)subjects[position] << 32) | position;
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < size; ++i) {
+				sorted[i] = (int)keys[i];
+			}
+		}
+
+		return sorted;
+	}
+
+	/**
+	 * Reads a fragment file in row encoding into its subject, relation, object and provenance columns.
+	 */
+	private static int[][] readRows(File file) throws IOException {
+		long size = (file.length() - headerSize) / RowMaterializedFragment.bytesPerQuad;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("The fragment is too large for the columnar encoding");
+
+		int[][] columns = new int[4][(int)size];
+		try (DataInputStream input = MaterializedFragmentStore.openInput(file)) {
+			for (int position = 0; position < size; ++position) {
+				for (int column = 0; column < 4; ++column) {
+					columns[column][position] = input.readInt();
+				}
+			}
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Writes a fragment in columnar encoding, see {@link ColumnarMaterializedFragment}.
+	 * The quads are sorted by subject, keeping the cube order among the quads of the same subject.
+	 * @param columns Subject, relation, object and provenance columns of the fragment
+	 */
+	private static void writeColumnar(int[][] columns, TermDictionary dictionary,
+			Set<Quadruple<String, String, String, String>> signatures, File file) throws IOException {
+		int[] subjects = columns[0];
+		int[] relations = columns[1];
+		int[] objects = columns[2];
+		int[] provenances = columns[3];
+		int size = subjects.length;
+		int[] sorted = sortBySubject(subjects, dictionary.size());
+
+		Pair<Boolean, String> relation = getConstant(signatures, 1);
+		Pair<Boolean, String> provenanceId = getConstant(signatures, 3);
+		int constantRelation = relation.getLeft() ? dictionary.lookup(relation.getRight()) : TermDictionary.NULL_ID;
+		int constantProvenance = provenanceId.getLeft() ? dictionary.lookup(provenanceId.getRight()) : TermDictionary.NULL_ID;
+		byte flags = 0;
+		if (relation.getLeft()) {
+			flags |= ColumnarMaterializedFragment.constantRelationFlag;
+		}
+		if (provenanceId.getLeft()) {
+			flags |= ColumnarMaterializedFragment.constantProvenanceFlag;
+		}
+
+		ByteArrayOutputStream directory = new ByteArrayOutputStream();
+		DataOutputStream directoryOutput = new DataOutputStream(directory);
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		try (DataOutputStream output = open(file)) {
+			output.writeByte(flags);
+			output.writeInt(constantRelation);
+			output.writeInt(constantProvenance);
+			output.writeLong(size);
+			long offset = ColumnarMaterializedFragment.prefixSize;
+			int nBlocks = 0;
+			for (int first = 0; first < size; first += ColumnarMaterializedFragment.blockSize) {
+				int last = Math.min(size, first + ColumnarMaterializedFragment.blockSize);
+				int[] minima = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+				int[] maxima = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+				for (int i = first; i < last; ++i) {
+					int position = sorted[i];
+					int[] quad = {subjects[position], relations[position], objects[position], provenances[position]};
+					for (int column = 0; column < 4; ++column) {
+						minima[column] = Math.min(minima[column], quad[column]);
+						maxima[column] = Math.max(maxima[column], quad[column]);
+					}
+				}
+
+				block.reset();
+				int previous = minima[0];
+				for (int i = first; i < last; ++i) {
+					int subject = subjects[sorted[i]];
+					writeVarInt(subject - previous, block);
+					previous = subject;
+				}
+				if (constantRelation == TermDictionary.NULL_ID) {
+					for (int i = first; i < last; ++i) {
+						writeVarInt(relations[sorted[i]], block);
+					}
+				}
+				for (int i = first; i < last; ++i) {
+					writeVarInt(objects[sorted[i]], block);
+				}
+				if (constantProvenance == TermDictionary.NULL_ID) {
+					for (int i = first; i < last; ++i) {
+						writeVarInt(provenances[sorted[i]], block);
+					}
+				}
+				block.writeTo(output);
+
+				directoryOutput.writeLong(offset);
+				directoryOutput.writeInt(block.size());
+				directoryOutput.writeInt(last - first);
+				for (int column = 0; column < 4; ++column) {
+					directoryOutput.writeInt(minima[column]);
+					directoryOutput.writeInt(maxima[column]);
+				}
+				offset += block.size();
+				++nBlocks;
+			}
+			directory.writeTo(output);
+			output.writeInt(nBlocks);
+			output.writeLong(offset);
+		}
+	}
+
+	/**
+	 * Returns whether all the signatures fix the given component to the same term, and the term.
+	 */
+	private static Pair<Boolean, String> getConstant(Set<Quadruple<String, String, String, String>> signatures,
+			int component) {
+		String constant = null;
+		for (Quadruple<String, String, String, String> signature : signatures) {
+			String term = component == 1 ? signature.getSecond() : signature.getFourth();
+			if (term == null || (constant != null && !constant.equals(term)))
+				return new ImmutablePair<>(false, null);
+
+			constant = term;
+		}
+
+		return new ImmutablePair<>(constant != null, constant);
+	}
+
+	private static void writeVarInt(int value, ByteArrayOutputStream output) {
+		while ((value & ~0x7f) != 0) {
+			output.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		output.write(value);
+	}
+
+	/**
+	 * Writes the row files of the fragments during the scan. Every fragment has a buffer of
+	 * {@link #writeBufferMemory} divided by the number of fragments, within bounds, starting with
+	 * the header of the file. A full buffer is appended to the file through a channel taken from
+	 * a pool of at most {@link #maxOpenFiles}; the least recently used channel is closed when the
+	 * pool is full. Closing the writers flushes all the buffers, so every file gets at least its
+	 * header.
+	 */
+	private static class FragmentWriters implements Closeable {
+
+		private List<File> files;
+
+		private ByteBuffer[] buffers;
+
+		/**
+		 * Whether the file of every fragment has been created, later writes append to it
+		 */
+		private boolean[] created;
+
+		/**
+		 * Open channels by fragment, in access order
+		 */
+		private LinkedHashMap<Integer, FileChannel> channels;
+
+		FragmentWriters(List<File> files) {
+			this.files = files;
+			int bufferSize = (int)Math.max(minWriteBufferSize,
+					Math.min(maxWriteBufferSize, writeBufferMemory / Math.max(1, files.size())));
+			// Whole quads only
+			bufferSize -= bufferSize % RowMaterializedFragment.bytesPerQuad;
+			buffers = new ByteBuffer[files.size()];
+			for (int i = 0; i < buffers.length; ++i) {
+				buffers[i] = ByteBuffer.allocate(bufferSize);
+				buffers[i].putInt(magic);
+				buffers[i].putInt(version);
+			}
+			created = new boolean[files.size()];
+			channels = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		void write(int fragment, int subject, int relation, int object, int provenanceId) throws IOException {
+			ByteBuffer buffer = buffers[fragment];
+			if (buffer.remaining() < RowMaterializedFragment.bytesPerQuad) {
+				flush(fragment);
+			}
+			buffer.putInt(subject);
+			buffer.putInt(relation);
+			buffer.putInt(object);
+			buffer.putInt(provenanceId);
+		}
+
+		private void flush(int fragment) throws IOException {
+			ByteBuffer buffer = buffers[fragment];
+			buffer.flip();
+			FileChannel channel = getChannel(fragment);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private FileChannel getChannel(int fragment) throws IOException {
+			FileChannel channel = channels.get(fragment);
+			if (channel != null)
+				return channel;
+
+			if (channels.size() >= maxOpenFiles) {
+				Iterator<FileChannel> eldest = channels.values().iterator();
+				eldest.next().close();
+				eldest.remove();
+			}
+			Path path = files.get(fragment).toPath();
+			channel = created[fragment] ?
+					FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+					: FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING);
+			created[fragment] = true;
+			channels.put(fragment, channel);
+			return channel;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				for (int fragment = 0; fragment < buffers.length; ++fragment) {
+					if (buffers[fragment].position() > 0 || !created[fragment]) {
+						flush(fragment);
+					}
+				}
+			} finally {
+				for (FileChannel channel : channels.values()) {
+					channel.close();
+				}
+				channels.clear();
+			}
+		}
+
+	}
+
+	/**
+	 * Opens a buffered output stream to the file and writes the header.
+	 */
+	static DataOutputStream open(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		output.writeInt(magic);
+		output.writeInt(version);
+		return output;
+	}
+
+	static void writeSignatures(Set<Quadruple<String, String, String, String>> signatures,
+			DataOutputStream output) throws IOException {
+		output.writeInt(signatures.size());
+		for (Quadruple<String, String, String, String> signature : signatures) {
+			writeNullableString(signature.getFirst(), output);
+			writeNullableString(signature.getSecond(), output);
+			writeNullableString(signature.getThird(), output);
+			writeNullableString(signature.getFourth(), output);
+		}
+	}
+
+	static void writeNullableString(String value, DataOutputStream output) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+}
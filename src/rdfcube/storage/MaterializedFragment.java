@@ -0,0 +1,98 @@
+package rdfcube.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import rdfcube.data.TermDictionary;
+import rdfcube.types.Quadruple;
+
+/**
+ * Read-only contents of a materialized fragment. Quads are identified by the terms of the
+ * dictionary of the store and can be scanned with a pattern, which lets the encodings
+ * skip the quads that cannot match.
+ *
+ */
+public abstract class MaterializedFragment implements Iterable<Quadruple<String, String, String, String>> {
+
+	protected long size;
+
+	protected TermDictionary dictionary;
+
+	protected MaterializedFragment(long size, TermDictionary dictionary) {
+		this.size = size;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Maps a fragment file written by {@link FragmentMaterializer}.
+	 * @param file
+	 * @param encoding
+	 * @param dictionary
+	 * @return
+	 * @throws IOException
+	 */
+	static MaterializedFragment map(File file, FragmentEncoding encoding, TermDictionary dictionary) throws IOException {
+		switch (encoding) {
+		case COLUMNAR :
+			return ColumnarMaterializedFragment.map(file, dictionary);
+		default :
+			return RowMaterializedFragment.map(file, dictionary);
+		}
+	}
+
+	/**
+	 * Number of quads in the fragment.
+	 * @return
+	 */
+	public long size() {
+		return size;
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Number of bytes used to store the quads.
+	 * @return
+	 */
+	public abstract long getStorageSize();
+
+	/**
+	 * Passes the quads matching the pattern to the consumer.
+	 * @param subject
+	 * @param relation
+	 * @param object
+	 * @param provenanceId
+	 * @param consumer
+	 * @return Number of quads read, which excludes the quads the encoding could skip.
+	 * {@link TermDictionary#NULL_ID} stands for a variable.
+	 */
+	public abstract long scan(int subject, int relation, int object, int provenanceId, QuadConsumer consumer);
+
+	/**
+	 * Returns true if the quad matches the pattern, where {@link TermDictionary#NULL_ID} is a variable.
+	 */
+	static boolean matches(int subject, int relation, int object, int provenanceId,
+			int quadSubject, int quadRelation, int quadObject, int quadProvenanceId) {
+		return (subject == TermDictionary.NULL_ID || quadSubject == subject)
+				&& (relation == TermDictionary.NULL_ID || quadRelation == relation)
+				&& (object == TermDictionary.NULL_ID || quadObject == object)
+				&& (provenanceId == TermDictionary.NULL_ID || quadProvenanceId == provenanceId);
+	}
+
+	/**
+	 * Decodes a quad of identifiers.
+	 * @return
+	 */
+	public Quadruple<String, String, String, String> decode(int subject, int relation, int object, int provenanceId) {
+		return new Quadruple<>(dictionary.decode(subject), dictionary.decode(relation),
+				dictionary.decode(object), dictionary.decode(provenanceId));
+	}
+
+	@Override
+	public String toString() {
+		return "[" + size + " materialized quads, " + getStorageSize() + " bytes]";
+	}
+
+}
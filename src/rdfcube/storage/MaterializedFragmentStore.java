@@ -0,0 +1,172 @@
+package rdfcube.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import rdfcube.RDFCubeFragment;
+import rdfcube.data.TermDictionary;
+import rdfcube.types.Quadruple;
+
+/**
+ * Read access to the fragments written by {@link FragmentMaterializer}. The dictionary
+ * and the catalog are loaded in memory, the fragment files are memory-mapped the
+ * first time they are requested.
+ *
+ */
+public class MaterializedFragmentStore {
+
+	private File directory;
+
+	private TermDictionary dictionary;
+
+	/**
+	 * Map from the signatures of the fragments to their files
+	 */
+	private Map<Set<Quadruple<String, String, String, String>>, String> catalog;
+
+	private Map<Set<Quadruple<String, String, String, String>>, FragmentEncoding> encodings;
+
+	private Map<Set<Quadruple<String, String, String, String>>, MaterializedFragment> openFragments;
+
+	private MaterializedFragmentStore(File directory) {
+		this.directory = directory;
+		catalog = new LinkedHashMap<>();
+		encodings = new LinkedHashMap<>();
+		openFragments = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Opens the fragments materialized in the given directory.
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static MaterializedFragmentStore open(File directory) throws IOException {
+		MaterializedFragmentStore store = new MaterializedFragmentStore(directory);
+		try (DataInputStream input = openInput(new File(directory, FragmentMaterializer.dictionaryFileName))) {
+			store.dictionary = TermDictionary.read(input);
+		}
+
+		File catalogFile = new File(directory, FragmentMaterializer.catalogFileName);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile), 1 << 16))) {
+			int catalogVersion = checkHeader(input.readInt(), input.readInt(), catalogFile);
+			int nFragments = input.readInt();
+			for (int i = 0; i < nFragments; ++i) {
+				String fileName = input.readUTF();
+				// Version 1 catalogs only contain row-encoded fragments
+				FragmentEncoding encoding = catalogVersion >= 2 ?
+						FragmentEncoding.values()[input.readByte()] : FragmentEncoding.ROW;
+				Set<Quadruple<String, String, String, String>> signatures = readSignatures(input);
+				store.catalog.put(signatures, fileName);
+				store.encodings.put(signatures, encoding);
+			}
+		}
+
+		return store;
+	}
+
+	/**
+	 * Opens a buffered input stream on the file and verifies its header.
+	 */
+	static DataInputStream openInput(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		checkHeader(input.readInt(), input.readInt(), file);
+		return input;
+	}
+
+	/**
+	 * Verifies the header of a file.
+	 * @return The version of the file
+	 */
+	static int checkHeader(int fileMagic, int fileVersion, File file) throws IOException {
+		if (fileMagic != FragmentMaterializer.magic)
+			throw new IOException(file + " is not a materialized fragment file");
+
+		if (fileVersion < 1 || fileVersion > FragmentMaterializer.version)
+			throw new IOException(file + " has version " + fileVersion + ", expected at most "
+					+ FragmentMaterializer.version);
+
+		return fileVersion;
+	}
+
+	static Set<Quadruple<String, String, String, String>> readSignatures(DataInputStream input) throws IOException {
+		Set<Quadruple<String, String, String, String>> signatures = new LinkedHashSet<>();
+		int nSignatures = input.readInt();
+		for (int i = 0; i < nSignatures; ++i) {
+			signatures.add(new Quadruple<>(readNullableString(input), readNullableString(input),
+					readNullableString(input), readNullableString(input)));
+		}
+
+		return signatures;
+	}
+
+	static String readNullableString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	public TermDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns true if the contents of the fragment are stored in this directory.
+	 * @param fragment
+	 * @return
+	 */
+	public boolean contains(RDFCubeFragment fragment) {
+		return catalog.containsKey(fragment.getSignatures());
+	}
+
+	/**
+	 * Returns the signatures of the materialized fragments.
+	 * @return
+	 */
+	public Set<Set<Quadruple<String, String, String, String>>> getMaterializedSignatures() {
+		return Collections.unmodifiableSet(catalog.keySet());
+	}
+
+	/**
+	 * Returns the encoding of a materialized fragment or null if the fragment has not been materialized.
+	 * @param fragment
+	 * @return
+	 */
+	public FragmentEncoding getEncoding(RDFCubeFragment fragment) {
+		return encodings.get(fragment.getSignatures());
+	}
+
+	/**
+	 * Returns a memory-mapped view of the contents of the fragment, or null
+	 * if the fragment has not been materialized.
+	 * @param fragment
+	 * @return
+	 * @throws IOException
+	 */
+	public MaterializedFragment getFragment(RDFCubeFragment fragment) throws IOException {
+		Set<Quadruple<String, String, String, String>> signatures = fragment.getSignatures();
+		MaterializedFragment result = openFragments.get(signatures);
+		if (result == null) {
+			String fileName = catalog.get(signatures);
+			if (fileName == null)
+				return null;
+
+			result = MaterializedFragment.map(new File(directory, fileName), encodings.get(signatures), dictionary);
+			openFragments.put(new LinkedHashSet<>(signatures), result);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + directory + ", " + catalog.size() + " fragments, " + dictionary + "]";
+	}
+
+}
@@ -0,0 +1,11 @@
+package rdfcube.storage;
+
+/**
+ * Receives the quads found by a scan of a materialized fragment as dictionary identifiers.
+ *
+ */
+public interface QuadConsumer {
+
+	public void accept(int subject, int relation, int object, int provenanceId);
+
+}
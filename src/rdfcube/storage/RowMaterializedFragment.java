@@ -0,0 +1,140 @@
+package rdfcube.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import rdfcube.data.TermDictionary;
+import rdfcube.types.Quadruple;
+
+/**
+ * Memory-mapped contents of a fragment stored in {@link FragmentEncoding#ROW} encoding.
+ * Quads are read directly from the mapped file, which is divided in segments since a single
+ * mapping cannot exceed 2GB.
+ *
+ */
+public class RowMaterializedFragment extends MaterializedFragment {
+
+	/**
+	 * Number of quads per mapped segment (1GB)
+	 */
+	private static final int quadsPerSegment = 1 << 26;
+
+	static final int bytesPerQuad = 16;
+
+	private IntBuffer[] segments;
+
+	private RowMaterializedFragment(IntBuffer[] segments, long size, TermDictionary dictionary) {
+		super(size, dictionary);
+		this.segments = segments;
+	}
+
+	/**
+	 * Maps a fragment file written by {@link FragmentMaterializer}.
+	 * @param file
+	 * @param dictionary
+	 * @return
+	 * @throws IOException
+	 */
+	static RowMaterializedFragment map(File file, TermDictionary dictionary) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(FragmentMaterializer.headerSize, channel.size()));
+			if (header.remaining() < FragmentMaterializer.headerSize)
+				throw new IOException(file + " is truncated");
+			MaterializedFragmentStore.checkHeader(header.getInt(), header.getInt(), file);
+
+			long size = (channel.size() - FragmentMaterializer.headerSize) / bytesPerQuad;
+			int nSegments = (int)((size + quadsPerSegment - 1) / quadsPerSegment);
+			IntBuffer[] segments = new IntBuffer[nSegments];
+			for (int i = 0; i < nSegments; ++i) {
+				long first = (long)i * quadsPerSegment;
+				long quads = Math.min(quadsPerSegment, size - first);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						FragmentMaterializer.headerSize + first * bytesPerQuad, quads * bytesPerQuad);
+				segments[i] = buffer.asIntBuffer();
+			}
+			// The mappings remain valid after the channel is closed
+			return new RowMaterializedFragment(segments, size, dictionary);
+		}
+	}
+
+	@Override
+	public long getStorageSize() {
+		return size * bytesPerQuad;
+	}
+
+	private int get(long position, int column) {
+		IntBuffer segment = segments[(int)(position / quadsPerSegment)];
+		return segment.get((int)(position % quadsPerSegment) * 4 + column);
+	}
+
+	public int getSubject(long position) {
+		return get(position, 0);
+	}
+
+	public int getRelation(long position) {
+		return get(position, 1);
+	}
+
+	public int getObject(long position) {
+		return get(position, 2);
+	}
+
+	public int getProvenance(long position) {
+		return get(position, 3);
+	}
+
+	/**
+	 * Decodes the quad at the given position.
+	 * @param position
+	 * @return
+	 */
+	public Quadruple<String, String, String, String> getQuadruple(long position) {
+		return decode(getSubject(position), getRelation(position), getObject(position), getProvenance(position));
+	}
+
+	@Override
+	public long scan(int subject, int relation, int object, int provenanceId, QuadConsumer consumer) {
+		for (long position = 0; position < size; ++position) {
+			int quadSubject = getSubject(position);
+			int quadRelation = getRelation(position);
+			int quadObject = getObject(position);
+			int quadProvenanceId = getProvenance(position);
+			if (matches(subject, relation, object, provenanceId, quadSubject, quadRelation, quadObject, quadProvenanceId)) {
+				consumer.accept(quadSubject, quadRelation, quadObject, quadProvenanceId);
+			}
+		}
+
+		return size;
+	}
+
+	@Override
+	public Iterator<Quadruple<String, String, String, String>> iterator() {
+		return new Iterator<Quadruple<String, String, String, String>>() {
+
+			long position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Quadruple<String, String, String, String> next() {
+				if (position >= size)
+					throw new NoSuchElementException();
+
+				return getQuadruple(position++);
+			}
+
+		};
+	}
+
+}